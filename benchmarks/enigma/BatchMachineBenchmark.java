@@ -0,0 +1,95 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of many short messages under different keys, converted
+ *  either by one machine per key in turn or by a batch with one lane per
+ *  key.  Each benchmark reports the time to convert every message once;
+ *  the lanes continue from where they stopped, as the machines do.
+ *  @author Izaac Ruiz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchMachineBenchmark {
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "256" })
+    public int size;
+
+    /** Number of keys, and so of messages and lanes. */
+    @Param({ "4", "16", "64" })
+    public int lanes;
+
+    /** Number of characters in each message. */
+    @Param({ "64", "1024" })
+    public int length;
+
+    /** Build a random machine, a copy of it and a lane for each of LANES
+     *  random keys, and a message for each. */
+    @Setup
+    public void setUp() {
+        Random random = new Random(SEED);
+        Machine machine = Synthetic.machine(size, SEED);
+        _batch = new BatchMachine(machine, lanes);
+        _machines = new Machine[lanes];
+        _messages = new int[lanes][length];
+        for (int i = 0; i < lanes; i += 1) {
+            _machines[i] = machine.copy();
+            _machines[i].setRotors(
+                Synthetic.message(machine.alphabet(), 4, random));
+            _batch.configure(i, _machines[i].template());
+            for (int k = 0; k < length; k += 1) {
+                _messages[i][k] = random.nextInt(size);
+            }
+        }
+    }
+
+    /** Measure converting each message with its own machine. */
+    @Benchmark
+    public int[][] convertEach() {
+        for (int i = 0; i < lanes; i += 1) {
+            int[] msg = _messages[i];
+            Machine machine = _machines[i];
+            for (int k = 0; k < length; k += 1) {
+                msg[k] = machine.convert(msg[k]);
+            }
+        }
+        return _messages;
+    }
+
+    /** Measure converting all the messages in lockstep. */
+    @Benchmark
+    public int[][] convertBatch() {
+        _batch.convert(_messages);
+        return _messages;
+    }
+
+    /** Seed for the wiring, keys and messages. */
+    private static final long SEED = 61;
+
+    /** Batch measured, with one lane per key. */
+    private BatchMachine _batch;
+
+    /** Machines measured, one per key. */
+    private Machine[] _machines;
+
+    /** Messages, converted in place. */
+    private int[][] _messages;
+}
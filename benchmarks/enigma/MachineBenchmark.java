@@ -0,0 +1,96 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of a five-rotor machine converting messages, either a
+ *  character at a time or whole.  Each benchmark reports the time per
+ *  message; divide by length for the time per character.
+ *  @author Izaac Ruiz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MachineBenchmark {
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "256" })
+    public int size;
+
+    /** Number of characters in each message. */
+    @Param({ "16", "1024", "65536" })
+    public int length;
+
+    /** Build a random machine and message. */
+    @Setup
+    public void setUp() {
+        _machine = Synthetic.machine(size, SEED);
+        _message = Synthetic.message(_machine.alphabet(), length,
+                                     new Random(SEED));
+        _source = _message.toCharArray();
+        _target = new char[length];
+    }
+
+    /** Measure convert(int), converting a message of LENGTH characters
+     *  one at a time, each the result of the one before. */
+    @Benchmark
+    public int convertInt() {
+        for (int i = 0; i < length; i += 1) {
+            _next = _machine.convert(_next);
+        }
+        return _next;
+    }
+
+    /** Measure convert(String), which allocates its result. */
+    @Benchmark
+    public Object convertString() {
+        return _machine.convert(_message);
+    }
+
+    /** Measure converting into a reused array. */
+    @Benchmark
+    public char[] convertChars() {
+        _machine.convert(_source, 0, length, _target);
+        return _target;
+    }
+
+    /** Measure converting into a reused array in parallel segments. */
+    @Benchmark
+    public char[] convertParallel() {
+        _machine.convertParallel(_source, 0, length, _target);
+        return _target;
+    }
+
+    /** Seed for the wiring and messages. */
+    private static final long SEED = 61;
+
+    /** Machine measured. */
+    private Machine _machine;
+
+    /** Message converted. */
+    private String _message;
+
+    /** _message as an array. */
+    private char[] _source;
+
+    /** Destination of array conversions. */
+    private char[] _target;
+
+    /** Argument of the next single-character conversion. */
+    private int _next;
+}
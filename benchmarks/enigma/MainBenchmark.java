@@ -0,0 +1,169 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** End-to-end benchmarks of Main on synthetic input files: a naval
+ *  configuration and messages of random letters in groups of five, each
+ *  under its own setting line.  Each operation processes the whole file,
+ *  so the scores give the time per file.
+ *  @author Izaac Ruiz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MainBenchmark {
+
+    /** Approximate size of the input file, in megabytes. */
+    @Param({ "4", "32" })
+    public int megabytes;
+
+    /** How Main reads and writes: "stream" for the default, or the name
+     *  of one of its options, without the dashes. */
+    @Param({ "stream", "parallel", "mmap" })
+    public String mode;
+
+    /** Write the configuration and input files. */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        _dir = Files.createTempDirectory("enigma-bench");
+        Path config = _dir.resolve("naval.conf");
+        Path input = _dir.resolve("input.txt");
+        Path output = _dir.resolve("output.txt");
+        Files.writeString(config, CONFIG, StandardCharsets.US_ASCII);
+        Files.writeString(input, input(megabytes * MEGABYTE),
+                          StandardCharsets.US_ASCII);
+        List<String> args = new ArrayList<>();
+        if (!mode.equals("stream")) {
+            args.add("--" + mode);
+        }
+        args.add(config.toString());
+        args.add(input.toString());
+        args.add(output.toString());
+        _args = args.toArray(new String[0]);
+    }
+
+    /** Remove the files written. */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(_dir)) {
+            files.forEach(f -> {
+                try {
+                    Files.delete(f);
+                } catch (IOException excp) {
+                    throw new UncheckedIOException(excp);
+                }
+            });
+        }
+        Files.delete(_dir);
+    }
+
+    /** Measure processing the input file. */
+    @Benchmark
+    public void process() {
+        Main.main(_args);
+    }
+
+    /** Return an input of about SIZE characters. */
+    private static String input(int size) {
+        Random random = new Random(SEED);
+        StringBuilder result = new StringBuilder(size + MESSAGE_SIZE);
+        while (result.length() < size) {
+            int first = random.nextInt(ROTORS.length);
+            result.append("* B Beta");
+            for (int i = 0; i < 3; i += 1) {
+                result.append(' ').append(ROTORS[(first + i) % ROTORS.length]);
+            }
+            result.append(' ').append(letters(random, 4)).append(' ')
+                .append(PLUGS[random.nextInt(PLUGS.length)]).append('\n');
+            for (int line = 0; line < MESSAGE_LINES; line += 1) {
+                for (int group = 0; group < GROUPS; group += 1) {
+                    result.append(group == 0 ? "" : " ")
+                        .append(letters(random, 5));
+                }
+                result.append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return N random letters drawn from RANDOM. */
+    private static String letters(Random random, int n) {
+        char[] result = new char[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = (char) ('A' + random.nextInt(LETTERS));
+        }
+        return new String(result);
+    }
+
+    /** Seed for the messages. */
+    private static final long SEED = 61;
+
+    /** Bytes per megabyte. */
+    private static final int MEGABYTE = 1 << 20;
+
+    /** Lines in each message. */
+    private static final int MESSAGE_LINES = 200;
+
+    /** Five-letter groups per message line. */
+    private static final int GROUPS = 10;
+
+    /** Approximate characters in each message. */
+    private static final int MESSAGE_SIZE = MESSAGE_LINES * GROUPS * 6;
+
+    /** Moving rotors, used three at a time in cyclic order. */
+    private static final String[] ROTORS = { "I", "II", "III", "IV", "V" };
+
+    /** Letters in the alphabet. */
+    private static final int LETTERS = 26;
+
+    /** Plugboards chosen among for each message. */
+    private static final String[] PLUGS = {
+        "", "(AQ) (EP)", "(AQ) (EP) (BC) (DF)", "(HIX) (LM)"
+    };
+
+    /** The naval configuration used by all the benchmarks. */
+    private static final String CONFIG = String.join("\n",
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ",
+        " 5 3",
+        " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+        " II ME     (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)",
+        " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)",
+        " IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)",
+        " V MZ      (AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)",
+        " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)",
+        " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)",
+        "           (RX) (SZ) (TV)",
+        "");
+
+    /** Directory holding the files. */
+    private Path _dir;
+
+    /** Arguments to Main. */
+    private String[] _args;
+}
@@ -0,0 +1,74 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of single permutation lookups and of parsing cycles.
+ *  Each lookup takes the previous result as its argument, so that
+ *  successive calls form a dependent chain that cannot be folded away.
+ *  @author Izaac Ruiz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermutationBenchmark {
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "256", "4096" })
+    public int size;
+
+    /** Build a random permutation of size characters. */
+    @Setup
+    public void setUp() {
+        _perm = Synthetic.permutation(Synthetic.alphabet(size),
+                                      new Random(SEED));
+        _cycles = Synthetic.cycles(_perm);
+    }
+
+    /** Measure permute(int). */
+    @Benchmark
+    public int permute() {
+        _next = _perm.permute(_next);
+        return _next;
+    }
+
+    /** Measure invert(int). */
+    @Benchmark
+    public int invert() {
+        _next = _perm.invert(_next);
+        return _next;
+    }
+
+    /** Measure parsing the cycles of a permutation of size characters. */
+    @Benchmark
+    public Object parse() {
+        return new Permutation(_cycles, _perm.alphabet());
+    }
+
+    /** Seed for the wiring. */
+    private static final long SEED = 61;
+
+    /** Permutation measured. */
+    private Permutation _perm;
+
+    /** _perm in cycle notation. */
+    private String _cycles;
+
+    /** Argument of the next lookup. */
+    private int _next;
+}
@@ -0,0 +1,109 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of a moving rotor: conversion in each direction, with and
+ *  without the compiled tables, and stepping.  Alphabets larger than
+ *  Rotor.MAX_COMPILED_SIZE are never compiled, so compiled=true measures
+ *  the same path as compiled=false for them.
+ *  @author Izaac Ruiz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RotorBenchmark {
+
+    /** Number of characters in the alphabet. */
+    @Param({ "26", "256", "4096" })
+    public int size;
+
+    /** Whether the rotor's conversion tables are compiled. */
+    @Param({ "true", "false" })
+    public boolean compiled;
+
+    /** Build a randomly wired rotor notched at its first position. */
+    @Setup
+    public void setUp() {
+        Alphabet alphabet = Synthetic.alphabet(size);
+        _rotor = new MovingRotor("M",
+                                 Synthetic.permutation(alphabet,
+                                                       new Random(SEED)),
+                                 String.valueOf(alphabet.toChar(0)));
+        if (compiled) {
+            _rotor.compile();
+        }
+    }
+
+    /** Measure convertForward at the rotor's own setting. */
+    @Benchmark
+    public int convertForward() {
+        _next = _rotor.convertForward(_next);
+        return _next;
+    }
+
+    /** Measure convertBackward at the rotor's own setting. */
+    @Benchmark
+    public int convertBackward() {
+        _next = _rotor.convertBackward(_next);
+        return _next;
+    }
+
+    /** Measure convertForward at an explicit, changing setting. */
+    @Benchmark
+    public int convertForwardAt() {
+        _posn = _posn + 1 == size ? 0 : _posn + 1;
+        _next = _rotor.convertForward(_next, _posn);
+        return _next;
+    }
+
+    /** Measure convertBackward at an explicit, changing setting. */
+    @Benchmark
+    public int convertBackwardAt() {
+        _posn = _posn + 1 == size ? 0 : _posn + 1;
+        _next = _rotor.convertBackward(_next, _posn);
+        return _next;
+    }
+
+    /** Measure atNotch, advancing between calls so that it sees every
+     *  setting. */
+    @Benchmark
+    public boolean atNotch() {
+        _rotor.advance();
+        return _rotor.atNotch();
+    }
+
+    /** Measure advance. */
+    @Benchmark
+    public int advance() {
+        _rotor.advance();
+        return _rotor.setting();
+    }
+
+    /** Seed for the wiring. */
+    private static final long SEED = 61;
+
+    /** Rotor measured. */
+    private Rotor _rotor;
+
+    /** Argument of the next conversion. */
+    private int _next;
+
+    /** Setting of the next explicit-setting conversion. */
+    private int _posn;
+}
@@ -0,0 +1,120 @@
+package enigma;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/** Randomly wired alphabets, permutations, machines and messages for the
+ *  benchmarks.  Everything is derived from a seed, so that successive
+ *  runs measure the same work.
+ *  @author Izaac Ruiz
+ */
+final class Synthetic {
+
+    /** Return an alphabet of SIZE characters: the usual upper-case
+     *  letters when SIZE is 26, and otherwise a run of CJK ideographs,
+     *  which have no case. */
+    static Alphabet alphabet(int size) {
+        if (size == UPPER.length()) {
+            return new Alphabet();
+        }
+        StringBuilder chars = new StringBuilder(size);
+        for (int i = 0; i < size; i += 1) {
+            chars.append((char) (FIRST_IDEOGRAPH + i));
+        }
+        return new Alphabet(chars.toString());
+    }
+
+    /** Return a random permutation of ALPHABET, drawn from RANDOM. */
+    static Permutation permutation(Alphabet alphabet, Random random) {
+        return new Permutation(shuffled(alphabet.size(), random), alphabet);
+    }
+
+    /** Return a random derangement of ALPHABET, which must have an even
+     *  size, made of transpositions only, drawn from RANDOM. */
+    static Permutation involution(Alphabet alphabet, Random random) {
+        int[] order = shuffled(alphabet.size(), random);
+        int[] forward = new int[order.length];
+        for (int i = 0; i + 1 < order.length; i += 2) {
+            forward[order[i]] = order[i + 1];
+            forward[order[i + 1]] = order[i];
+        }
+        return new Permutation(forward, alphabet);
+    }
+
+    /** Return the cycles of PERM, written in its alphabet. */
+    static String cycles(Permutation perm) {
+        Alphabet alphabet = perm.alphabet();
+        boolean[] seen = new boolean[perm.size()];
+        StringBuilder result = new StringBuilder();
+        for (int k = 0; k < seen.length; k += 1) {
+            if (!seen[k]) {
+                result.append('(');
+                for (int j = k; !seen[j]; j = perm.permute(j)) {
+                    seen[j] = true;
+                    result.append(alphabet.toChar(j));
+                }
+                result.append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return a machine over an alphabet of SIZE characters with a
+     *  reflector, a fixed rotor and three moving rotors, each notched at
+     *  two positions, all randomly wired from SEED.  Its rotors are
+     *  inserted and set at random, with no plugboard. */
+    static Machine machine(int size, long seed) {
+        Random random = new Random(seed);
+        Alphabet alphabet = alphabet(size);
+        HashMap<String, Rotor> rotors = new HashMap<>();
+        rotors.put("R", new Reflector("R", involution(alphabet, random)));
+        rotors.put("F", new FixedRotor("F", permutation(alphabet, random)));
+        for (int i = 1; i <= MOVING; i += 1) {
+            String notches = ""
+                + alphabet.toChar(random.nextInt(size))
+                + alphabet.toChar(random.nextInt(size));
+            rotors.put("M" + i,
+                       new MovingRotor("M" + i,
+                                       permutation(alphabet, random),
+                                       notches));
+        }
+        Machine result = new Machine(alphabet, MOVING + 2, MOVING, rotors);
+        result.insertRotors(new String[] { "R", "F", "M1", "M2", "M3" });
+        result.setRotors(message(alphabet, MOVING + 1, random));
+        return result;
+    }
+
+    /** Return a message of LENGTH random characters of ALPHABET, drawn
+     *  from RANDOM. */
+    static String message(Alphabet alphabet, int length, Random random) {
+        char[] result = new char[length];
+        for (int i = 0; i < length; i += 1) {
+            result[i] = alphabet.toChar(random.nextInt(alphabet.size()));
+        }
+        return new String(result);
+    }
+
+    /** Return a random ordering of 0 .. N-1, drawn from RANDOM. */
+    private static int[] shuffled(int n, Random random) {
+        int[] result = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = i;
+        }
+        for (int i = n - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1);
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /** The usual upper-case alphabet. */
+    private static final String UPPER = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    /** First character of the larger alphabets. */
+    private static final char FIRST_IDEOGRAPH = 0x4E00;
+
+    /** Number of moving rotors in a synthetic machine. */
+    private static final int MOVING = 3;
+}
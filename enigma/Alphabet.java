@@ -1,7 +1,10 @@
 package enigma;
 
+import java.util.Arrays;
 import java.util.Locale;
 
+import static enigma.EnigmaException.*;
+
 /** An alphabet of encodable characters.  Provides a mapping from characters
  *  to and from indices into the alphabet.
  *  @author Izaac Ruiz
@@ -12,6 +15,7 @@ class Alphabet {
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
         _chars = chars.toUpperCase(Locale.ROOT);
+        buildIndex();
     }
 
     /** A default alphabet of all upper-case characters. */
@@ -19,6 +23,43 @@ class Alphabet {
         this("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
     }
 
+    /** An alphabet whose K-th character is CHARS[K], taken exactly as
+     *  given, and that is a byte alphabet iff BYTES. */
+    private Alphabet(char[] chars, boolean bytes) {
+        _chars = new String(chars);
+        _bytes = bytes;
+        buildIndex();
+    }
+
+    /** Return the byte alphabet: the BYTE_VALUES characters with codes 0
+     *  to 255, each standing for the byte of the same value, so that
+     *  index, character and unsigned byte value coincide.  Cycles and
+     *  settings over the byte alphabet write each symbol as two
+     *  hexadecimal digits. */
+    static Alphabet bytes() {
+        char[] chars = new char[BYTE_VALUES];
+        for (int i = 0; i < chars.length; i += 1) {
+            chars[i] = (char) i;
+        }
+        return new Alphabet(chars, true);
+    }
+
+    /** Return true iff I am the byte alphabet. */
+    boolean isBytes() {
+        return _bytes;
+    }
+
+    /** Return the index of the symbol written as two hexadecimal digits
+     *  at position POSN of TEXT, or -1 if there are no such digits. */
+    static int hexIndex(CharSequence text, int posn) {
+        if (posn + 1 >= text.length()) {
+            return -1;
+        }
+        int high = Character.digit(text.charAt(posn), HEX);
+        int low = Character.digit(text.charAt(posn + 1), HEX);
+        return high < 0 || low < 0 ? -1 : high * HEX + low;
+    }
+
     /** Returns the size of the alphabet. */
     int size() {
         return _chars.length();
@@ -26,7 +67,7 @@ class Alphabet {
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        return (_chars.indexOf(ch) != -1);
+        return toInt(ch) != -1;
     }
 
     /** Returns character number INDEX in the alphabet, where
@@ -36,12 +77,116 @@ class Alphabet {
     }
 
     /** Returns the index of character CH which must be in
-     *  the alphabet. This is the inverse of toChar(). */
+     *  the alphabet. This is the inverse of toChar(). Returns -1 if CH
+     *  is not in the alphabet. */
     int toInt(char ch) {
-        return _chars.indexOf(ch);
+        if (_direct != null) {
+            int k = ch - _low;
+            return k >= 0 && k < _direct.length ? _direct[k] : -1;
+        }
+        int mask = _keys.length - 1;
+        for (int h = hash(ch) & mask; _values[h] != -1; h = (h + 1) & mask) {
+            if (_keys[h] == ch) {
+                return _values[h];
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Alphabet)) {
+            return false;
+        }
+        Alphabet other = (Alphabet) obj;
+        return _bytes == other._bytes && _chars.equals(other._chars);
     }
 
+    @Override
+    public int hashCode() {
+        return _chars.hashCode();
+    }
+
+    /** Fill in the reverse index from _chars, rejecting duplicates.  Dense
+     *  alphabets get a direct table spanning their lowest to highest
+     *  character; sparse ones an open-addressing table. */
+    private void buildIndex() {
+        int n = _chars.length();
+        char low = Character.MAX_VALUE, high = Character.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            low = (char) Math.min(low, _chars.charAt(i));
+            high = (char) Math.max(high, _chars.charAt(i));
+        }
+        if (n == 0 || high - low < Math.max(DIRECT_SPAN, 4 * n)) {
+            _low = n == 0 ? 0 : low;
+            _direct = new int[n == 0 ? 0 : high - low + 1];
+            Arrays.fill(_direct, -1);
+            for (int i = 0; i < n; i++) {
+                int k = _chars.charAt(i) - _low;
+                if (_direct[k] != -1) {
+                    throw duplicate(_chars.charAt(i));
+                }
+                _direct[k] = i;
+            }
+        } else {
+            int capacity = Integer.highestOneBit(4 * n - 1) << 1;
+            int mask = capacity - 1;
+            _keys = new char[capacity];
+            _values = new int[capacity];
+            Arrays.fill(_values, -1);
+            for (int i = 0; i < n; i++) {
+                char ch = _chars.charAt(i);
+                int h = hash(ch) & mask;
+                while (_values[h] != -1) {
+                    if (_keys[h] == ch) {
+                        throw duplicate(ch);
+                    }
+                    h = (h + 1) & mask;
+                }
+                _keys[h] = ch;
+                _values[h] = i;
+            }
+        }
+    }
+
+    /** Return the error reported for a duplicated character CH. */
+    private static EnigmaException duplicate(char ch) {
+        return error("duplicate character '%c' in alphabet", ch);
+    }
+
+    /** Return a well-mixed hash of CH. */
+    private static int hash(char ch) {
+        int h = ch * 0x9E3779B1;
+        return h ^ (h >>> 16);
+    }
+
+    /** Widest character range, in characters, that is always indexed by
+     *  a direct table. */
+    private static final int DIRECT_SPAN = 256;
+
+    /** Number of distinct byte values. */
+    static final int BYTE_VALUES = 256;
+
+    /** Radix of the digits naming bytes. */
+    private static final int HEX = 16;
+
     /** Characters in Alphabet */
     private String _chars;
 
+    /** True iff I am the byte alphabet. */
+    private boolean _bytes;
+
+    /** Lowest character in the alphabet when _direct is in use. */
+    private char _low;
+
+    /** Direct reverse index: _direct[C - _low] is the index of C, or -1.
+     *  Null when the open-addressing table is used instead. */
+    private int[] _direct;
+
+    /** Keys of the open-addressing reverse index. */
+    private char[] _keys;
+
+    /** Values of the open-addressing reverse index; -1 marks a free slot. */
+    private int[] _values;
+
 }
@@ -0,0 +1,67 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Alphabet class.
+ *  @author
+ */
+public class AlphabetTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void checkLookup() {
+        for (int i = 0; i < UPPER_STRING.length(); i += 1) {
+            char c = UPPER_STRING.charAt(i);
+            assertEquals(msg("upper", "index of '%c'", c), i, UPPER.toInt(c));
+            assertEquals(c, UPPER.toChar(i));
+            assertTrue(UPPER.contains(c));
+        }
+        assertFalse(UPPER.contains('*'));
+        assertEquals(-1, UPPER.toInt('('));
+    }
+
+    @Test
+    public void checkSparse() {
+        String chars = "A\u0100\u4E2D\uFFEE9";
+        Alphabet sparse = new Alphabet(chars);
+        for (int i = 0; i < chars.length(); i += 1) {
+            assertEquals(i, sparse.toInt(chars.charAt(i)));
+        }
+        assertFalse(sparse.contains('B'));
+        assertFalse(sparse.contains('\u4E2E'));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkDuplicate() {
+        new Alphabet("ABCA");
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkSparseDuplicate() {
+        new Alphabet("A\u4E2D\u0100\u4E2D");
+    }
+
+    @Test
+    public void checkBytes() {
+        Alphabet bytes = Alphabet.bytes();
+        assertTrue(bytes.isBytes());
+        assertFalse(UPPER.isBytes());
+        assertEquals(256, bytes.size());
+        for (int i = 0; i < bytes.size(); i += 1) {
+            assertEquals(i, bytes.toInt((char) i));
+            assertEquals((char) i, bytes.toChar(i));
+        }
+        assertEquals(-1, bytes.toInt((char) 256));
+        assertEquals(0xa7, Alphabet.hexIndex("(a7)", 1));
+        assertEquals(-1, Alphabet.hexIndex("(a7)", 2));
+    }
+
+}
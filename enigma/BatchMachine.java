@@ -0,0 +1,245 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** A batch of independent Enigma machines sharing one configuration,
+ *  each in its own lane with its own rotors, settings and plugboard, that
+ *  convert in lockstep: each keystroke of the batch converts the next
+ *  character of every lane's message.  The state of all lanes is held in
+ *  parallel arrays, one entry per lane, so that the lanes' table lookups,
+ *  which do not depend on one another, can overlap in the processor.
+ *  Each lane converts exactly as a Machine configured as that lane
+ *  would.  A lane is configured from a Machine.Template, or from a
+ *  setting line through a machine of its own.
+ *  @author Izaac Ruiz
+ */
+class BatchMachine {
+
+    /** A batch of LANES lanes, none yet configured, for the
+     *  configuration and rotors of MACHINE. */
+    BatchMachine(Machine machine, int lanes) {
+        if (lanes < 1) {
+            throw error("a batch needs at least one lane");
+        }
+        _machine = machine.copy();
+        _machine.useKeystream(false);
+        _alphabet = machine.alphabet();
+        _rotors = machine.availableRotors();
+        _size = _alphabet.size();
+        _numRotors = machine.numRotors();
+        _lanes = lanes;
+        _slots = new ArrayList<>(Collections.nCopies(lanes, null));
+        _settings = new int[lanes][];
+        _plugboards = new Permutation[lanes];
+        _odometers = new Odometer[lanes];
+        _state = new long[lanes];
+        _fast = new int[lanes];
+        _entry = new int[lanes][];
+        _exit = new int[lanes][];
+        _sandwich = new int[lanes * _size];
+        _moving = new int[_numRotors];
+    }
+
+    /** Return my number of lanes. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Configure lane LANE as TEMPLATE, which must have been made by a
+     *  machine that shares my rotors, records. */
+    void configure(int lane, Machine.Template template) {
+        checkLane(lane);
+        int[] ids = template.rotorIds();
+        Rotor[] rotors = new Rotor[ids.length];
+        for (int i = 0; i < ids.length; i += 1) {
+            rotors[i] = _rotors[ids[i]];
+        }
+        _machine.configure(template);
+        _slots.set(lane, Arrays.asList(rotors));
+        _settings[lane] = template.start();
+        _plugboards[lane] = template.plugboard();
+        _odometers[lane] = _machine.odometer();
+        _state[lane] = template.state();
+        _fast[lane] = _settings[lane][_numRotors - 1];
+        _entry[lane] = template.entry();
+        _exit[lane] = template.exit();
+        template.sandwich(_sandwich, lane * _size);
+    }
+
+    /** Configure lane LANE from the setting line whose items following
+     *  its '*' are ITEMS, as Main would configure a machine. */
+    void setUp(int lane, String[] items) {
+        checkLane(lane);
+        Main.setUp(_machine, items);
+        configure(lane, _machine.template());
+    }
+
+    /** Convert each MESSAGES[L] in place with lane L, for L < lanes().
+     *  Each message is a sequence of indices in my alphabet, and may be
+     *  null to leave its lane idle.  Messages may differ in length;
+     *  lanes whose messages are finished stay where they stopped.  Each
+     *  lane continues from where its last message left it. */
+    void convert(int[][] messages) {
+        if (messages.length > _lanes) {
+            throw error("%d messages for %d lanes", messages.length,
+                        _lanes);
+        }
+        int longest = 0;
+        for (int lane = 0; lane < messages.length; lane += 1) {
+            if (messages[lane] != null) {
+                if (_odometers[lane] == null) {
+                    throw error("lane %d not configured", lane);
+                }
+                longest = Math.max(longest, messages[lane].length);
+            }
+        }
+        int n = _size;
+        for (int t = 0; t < longest; t += 1) {
+            for (int lane = 0, base = 0; lane < messages.length;
+                 lane += 1, base += n) {
+                int[] msg = messages[lane];
+                if (msg == null || t >= msg.length) {
+                    continue;
+                }
+                Odometer odometer = _odometers[lane];
+                long state = _state[lane];
+                long next = odometer.next(state);
+                _state[lane] = next;
+                if (odometer.slowMoves(state)) {
+                    moveSlow(lane, next);
+                } else if (odometer.numRotors() > 0) {
+                    _fast[lane] = odometer.fastSetting(next);
+                }
+                int[] entry = _entry[lane];
+                if (entry != null) {
+                    int row = _fast[lane] * n;
+                    int c = _sandwich[base + entry[row + msg[t]]];
+                    msg[t] = _exit[lane][row + c];
+                } else {
+                    msg[t] = through(lane, msg[t]);
+                }
+            }
+        }
+    }
+
+    /** Convert each MESSAGES[L] in place with lane L, as for
+     *  convert(int[][]), where the messages are characters of my
+     *  alphabet. */
+    void convert(char[][] messages) {
+        int[][] indices = new int[messages.length][];
+        for (int lane = 0; lane < messages.length; lane += 1) {
+            char[] msg = messages[lane];
+            if (msg == null) {
+                continue;
+            }
+            indices[lane] = new int[msg.length];
+            for (int i = 0; i < msg.length; i += 1) {
+                indices[lane][i] = _alphabet.toInt(msg[i]);
+                if (indices[lane][i] < 0) {
+                    throw error("character '%c' not in alphabet", msg[i]);
+                }
+            }
+        }
+        convert(indices);
+        for (int lane = 0; lane < messages.length; lane += 1) {
+            for (int i = 0; indices[lane] != null && i < indices[lane].length;
+                 i += 1) {
+                messages[lane][i] = _alphabet.toChar(indices[lane][i]);
+            }
+        }
+    }
+
+    /** Set the moving rotors of lane LANE, some of which other than the
+     *  rightmost have moved, to the packed state STATE, and recompute its
+     *  sandwich. */
+    private void moveSlow(int lane, long state) {
+        Odometer odometer = _odometers[lane];
+        int first = _numRotors - odometer.numRotors();
+        odometer.unpack(state, _moving);
+        System.arraycopy(_moving, 0, _settings[lane], first,
+                         odometer.numRotors());
+        _fast[lane] = _settings[lane][_numRotors - 1];
+        Machine.composeSandwich(_slots.get(lane), _settings[lane],
+                                _sandwich, lane * _size);
+    }
+
+    /** Return the conversion of C by lane LANE, whose rightmost rotor is
+     *  not compiled, at its current settings. */
+    private int through(int lane, int c) {
+        Permutation plugboard = _plugboards[lane];
+        Rotor fast = _slots.get(lane).get(_numRotors - 1);
+        int posn = _fast[lane];
+        int result = plugboard == null ? c : plugboard.permute(c);
+        result = fast.convertForward(result, posn);
+        result = _sandwich[lane * _size + result];
+        result = fast.convertBackward(result, posn);
+        return plugboard == null ? result : plugboard.invert(result);
+    }
+
+    /** Check that LANE is one of my lanes. */
+    private void checkLane(int lane) {
+        if (lane < 0 || lane >= _lanes) {
+            throw error("no lane %d", lane);
+        }
+    }
+
+    /** Machine used to configure lanes and to supply their odometers. */
+    private final Machine _machine;
+
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Available rotors, by ID. */
+    private final Rotor[] _rotors;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots of each lane. */
+    private final int _numRotors;
+
+    /** Number of lanes. */
+    private final int _lanes;
+
+    /** Rotors in the slots of each lane, reflector first. */
+    private final List<List<Rotor>> _slots;
+
+    /** Settings of each lane's rotors, by slot. */
+    private final int[][] _settings;
+
+    /** Plugboard of each lane, or null. */
+    private final Permutation[] _plugboards;
+
+    /** Odometer of each lane's moving rotors, or null if the lane is not
+     *  configured. */
+    private final Odometer[] _odometers;
+
+    /** Packed state of each lane's moving rotors. */
+    private final long[] _state;
+
+    /** Setting of each lane's rightmost rotor. */
+    private final int[] _fast;
+
+    /** Entry table of each lane, as in Machine, or null. */
+    private final int[][] _entry;
+
+    /** Exit table of each lane, or null. */
+    private final int[][] _exit;
+
+    /** Sandwiches of all lanes: lane L's occupies entries L * size to
+     *  (L + 1) * size - 1. */
+    private final int[] _sandwich;
+
+    /** Settings of the moving rotors unpacked by moveSlow. */
+    private final int[] _moving;
+}
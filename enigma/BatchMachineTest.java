@@ -0,0 +1,169 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the BatchMachine class.
+ *  @author
+ */
+public class BatchMachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Setting lines, without their '*', for the naval rotors. */
+    private static final String[] SETTINGS = {
+        "B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "C Gamma VI VII II ADUZ",
+        "B Beta I II III AAAA",
+        "C Beta VIII VI V ZZYZ (AQ) (EP)",
+        "B Gamma II I VII QEVZ (MN)",
+    };
+
+    /** Return a machine with the naval rotors set up from SETTING. */
+    private static Machine naval(String setting) {
+        Machine mach = new Machine(UPPER, 5, 3, navalRotors());
+        Main.setUp(mach, setting.split(" "));
+        return mach;
+    }
+
+    /** Return a random upper-case message of LENGTH letters from
+     *  RANDOM. */
+    private static char[] message(Random random, int length) {
+        char[] result = new char[length];
+        for (int i = 0; i < length; i += 1) {
+            result[i] = (char) ('A' + random.nextInt(26));
+        }
+        return result;
+    }
+
+    @Test
+    public void checkLanesMatchMachines() {
+        Random random = new Random(61);
+        BatchMachine batch =
+            new BatchMachine(naval(SETTINGS[0]), SETTINGS.length);
+        Machine[] machines = new Machine[SETTINGS.length];
+        for (int i = 0; i < SETTINGS.length; i += 1) {
+            batch.setUp(i, SETTINGS[i].split(" "));
+            machines[i] = naval(SETTINGS[i]);
+        }
+        for (int round = 0; round < 3; round += 1) {
+            char[][] messages = new char[SETTINGS.length][];
+            String[] expected = new String[SETTINGS.length];
+            for (int i = 0; i < SETTINGS.length; i += 1) {
+                messages[i] = message(random, 700 + 97 * i);
+                expected[i] = machines[i].convert(new String(messages[i]));
+            }
+            batch.convert(messages);
+            for (int i = 0; i < SETTINGS.length; i += 1) {
+                assertEquals(msg("lane " + i, "round %d", round),
+                             expected[i], new String(messages[i]));
+            }
+        }
+    }
+
+    @Test
+    public void checkIdleLanes() {
+        BatchMachine batch = new BatchMachine(naval(SETTINGS[0]), 3);
+        batch.setUp(0, SETTINGS[1].split(" "));
+        batch.setUp(2, SETTINGS[2].split(" "));
+        char[][] messages = {"HELLOWORLD".toCharArray(), null,
+                             "HELLO".toCharArray()};
+        batch.convert(messages);
+        assertEquals(naval(SETTINGS[1]).convert("HELLOWORLD"),
+                     new String(messages[0]));
+        assertEquals(naval(SETTINGS[2]).convert("HELLO"),
+                     new String(messages[2]));
+        assertNull(messages[1]);
+    }
+
+    @Test
+    public void checkTemplates() {
+        Machine base = naval(SETTINGS[0]);
+        BatchMachine batch = new BatchMachine(base, 2);
+        Machine mach = base.copy();
+        Main.setUp(mach, SETTINGS[3].split(" "));
+        batch.configure(0, mach.template());
+        batch.configure(1, mach.template());
+        char[][] messages = {"ENIGMA".toCharArray(),
+                             "ENIGMA".toCharArray()};
+        batch.convert(messages);
+        assertEquals(mach.convert("ENIGMA"), new String(messages[0]));
+        assertEquals(new String(messages[0]), new String(messages[1]));
+    }
+
+    @Test
+    public void checkLargeAlphabet() {
+        int n = Rotor.MAX_COMPILED_SIZE + 44;
+        char first = '\u4e00';
+        StringBuilder chars = new StringBuilder();
+        StringBuilder wiring = new StringBuilder("(");
+        StringBuilder pairs = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            chars.append((char) (first + i));
+            wiring.append((char) (first + (i * 167 + 13) % n));
+            if (i % 2 == 0) {
+                pairs.append("(").append((char) (first + i))
+                    .append((char) (first + i + 1)).append(")");
+            }
+        }
+        Alphabet alpha = new Alphabet(chars.toString());
+        HashMap<String, Rotor> rotors = new HashMap<>();
+        rotors.put("R", new Reflector("R", new Permutation(pairs.toString(),
+                                                           alpha)));
+        rotors.put("M", new MovingRotor("M", new Permutation(
+            wiring.append(")").toString(), alpha), "\u4e00"));
+        rotors.put("N", new MovingRotor("N", new Permutation(
+            "", alpha), "\u4e01"));
+        Machine mach = new Machine(alpha, 3, 2, rotors);
+        mach.insertRotors(new String[] {"R", "N", "M"});
+        mach.setRotors(new int[] {5, n - 2});
+        mach.setPlugboard(mach.plugboard("(\u4e00\u4e05)"));
+        BatchMachine batch = new BatchMachine(mach, 1);
+        batch.configure(0, mach.template());
+        int[][] messages = {new int[3 * n]};
+        for (int i = 0; i < messages[0].length; i += 1) {
+            messages[0][i] = i * 7 % n;
+        }
+        int[] expected = new int[messages[0].length];
+        for (int i = 0; i < expected.length; i += 1) {
+            expected[i] = mach.convert(messages[0][i]);
+        }
+        batch.convert(messages);
+        assertArrayEquals(expected, messages[0]);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkUnconfiguredLane() {
+        BatchMachine batch = new BatchMachine(naval(SETTINGS[0]), 2);
+        batch.setUp(0, SETTINGS[0].split(" "));
+        batch.convert(new char[][] {"A".toCharArray(), "A".toCharArray()});
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadCharacter() {
+        BatchMachine batch = new BatchMachine(naval(SETTINGS[0]), 1);
+        batch.setUp(0, SETTINGS[0].split(" "));
+        batch.convert(new char[][] {"a".toCharArray()});
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkTooManyMessages() {
+        BatchMachine batch = new BatchMachine(naval(SETTINGS[0]), 2);
+        batch.convert(new int[3][]);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkNoSuchLane() {
+        new BatchMachine(naval(SETTINGS[0]), 2)
+            .setUp(2, SETTINGS[0].split(" "));
+    }
+}
@@ -0,0 +1,346 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
+
+import static enigma.EnigmaException.*;
+
+/** A Turing-Welchman bombe: given a ciphertext and a crib (plaintext
+ *  known to lie under its start), finds the rotor orders, starting
+ *  settings and partial plugboards consistent with them.
+ *
+ *  The crib and ciphertext define a menu, a graph on the letters with
+ *  an edge between the crib and cipher letters at each position.  If
+ *  letter A is plugged to X, every edge from A to B at position I
+ *  implies that B is plugged to S_I(X), where S_I is the machine's
+ *  substitution without plugboard after I + 1 keystrokes.  For each
+ *  rotor order and starting setting, the bombe hypothesizes each
+ *  partner for the most connected letter of the menu and propagates the
+ *  implications through the menu, dropping the hypothesis as soon as a
+ *  letter would be plugged to two different letters.  Each hypothesis
+ *  that survives is a stop.  The starting settings of each rotor order
+ *  are divided among the common fork-join pool.
+ *  @author Izaac Ruiz
+ */
+class Bombe {
+
+    /** Receives the results of a search, possibly from several threads
+     *  at once. */
+    interface Listener {
+        /** Called for each STOP found. */
+        void stop(Stop stop);
+
+        /** Called after every PROGRESS_STEP starting settings of a rotor
+         *  order and after each rotor order, with the number of starting
+         *  settings TESTED so far and the rate of testing in this search,
+         *  in settings per second, PERSECOND.  Reports made from several
+         *  threads at once may arrive slightly out of order. */
+        void progress(long tested, double perSecond);
+    }
+
+    /** A surviving hypothesis: a rotor order, starting setting and the
+     *  plugboard pairs it implies. */
+    static class Stop {
+        /** A stop with rotors ROTORS, starting setting SETTING and
+         *  plugboard cycles PLUGBOARD. */
+        Stop(String[] rotors, String setting, String plugboard) {
+            _rotors = rotors;
+            _setting = setting;
+            _plugboard = plugboard;
+        }
+
+        /** Return the names of my rotors, reflector first. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return my starting setting. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return the plugboard cycles implied by my hypothesis.  Letters
+         *  not in the menu, or found to be unplugged, do not appear. */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        /** Return me as a setting line. */
+        @Override
+        public String toString() {
+            return ("* " + String.join(" ", _rotors) + " " + _setting + " "
+                    + _plugboard).trim();
+        }
+
+        /** Rotor names, reflector first. */
+        private final String[] _rotors;
+
+        /** Starting setting. */
+        private final String _setting;
+
+        /** Implied plugboard cycles. */
+        private final String _plugboard;
+    }
+
+    /** A bombe for the rotors of MACHINE, whose configuration, but not
+     *  rotors, settings or plugboard, it uses, given that CRIB enciphers
+     *  to the start of CIPHER.  Both must be in MACHINE's alphabet, and
+     *  no letter of CRIB may equal the cipher letter under it. */
+    Bombe(Machine machine, String crib, String cipher) {
+        _alphabet = machine.alphabet();
+        _template = machine.copy();
+        _template.useKeystream(false);
+        _size = _alphabet.size();
+        if (crib.isEmpty() || crib.length() > cipher.length()) {
+            throw error("crib must be non-empty and no longer than the "
+                        + "ciphertext");
+        }
+        _length = crib.length();
+        int[] plain = new int[_length];
+        int[] coded = new int[_length];
+        int[] degree = new int[_size];
+        for (int i = 0; i < _length; i += 1) {
+            plain[i] = index(crib.charAt(i));
+            coded[i] = index(cipher.charAt(i));
+            if (plain[i] == coded[i]) {
+                throw error("crib letter %c enciphers to itself at %d",
+                            crib.charAt(i), i);
+            }
+            degree[plain[i]] += 1;
+            degree[coded[i]] += 1;
+        }
+        _edgeStart = new int[_size + 1];
+        for (int a = 0; a < _size; a += 1) {
+            _edgeStart[a + 1] = _edgeStart[a] + degree[a];
+        }
+        _edgeTo = new int[2 * _length];
+        _edgePosn = new int[2 * _length];
+        int[] fill = Arrays.copyOf(_edgeStart, _size);
+        for (int i = 0; i < _length; i += 1) {
+            addEdge(fill, plain[i], coded[i], i);
+            addEdge(fill, coded[i], plain[i], i);
+        }
+        int test = 0;
+        for (int a = 1; a < _size; a += 1) {
+            test = degree[a] > degree[test] ? a : test;
+        }
+        _test = test;
+    }
+
+    /** Search every rotor order, reporting to LISTENER. */
+    void search(Listener listener) {
+        search(_template.rotorOrders(), listener);
+    }
+
+    /** Search the rotor orders ORDERS, each an array of rotor IDs,
+     *  reflector first, reporting to LISTENER. */
+    void search(List<int[]> orders, Listener listener) {
+        int settings = _template.numRotors() - 1;
+        long starts = 1;
+        for (int i = 0; i < settings; i += 1) {
+            starts = Math.multiplyExact(starts, (long) _size);
+        }
+        long total = starts;
+        Permutation identity = _template.plugboard("");
+        ThreadLocal<Worker> workers =
+            ThreadLocal.withInitial(() -> new Worker(_template.copy()));
+        long before = _tested.sum();
+        long began = System.nanoTime();
+        for (int[] order : orders) {
+            LongStream.range(0, total).parallel().forEach(start -> {
+                workers.get().test(order, start, identity, listener);
+                _tested.increment();
+                if ((start + 1) % PROGRESS_STEP == 0) {
+                    report(listener, before, began);
+                }
+            });
+            report(listener, before, began);
+        }
+    }
+
+    /** Tell LISTENER the number of starting settings tested so far and
+     *  the rate of testing since the search began at time BEGAN, when
+     *  BEFORE settings had been tested. */
+    private void report(Listener listener, long before, long began) {
+        long tested = _tested.sum();
+        double seconds = (System.nanoTime() - began) / NANOS;
+        listener.progress(tested, (tested - before) / seconds);
+    }
+
+    /** Return the number of starting settings tested so far. */
+    long tested() {
+        return _tested.sum();
+    }
+
+    /** The per-thread state of a search. */
+    private class Worker {
+        /** A worker converting with MACHINE. */
+        Worker(Machine machine) {
+            _machine = machine;
+            _rows = new int[_length * _size];
+            _partner = new int[_size];
+            _queue = new int[_size];
+            _positions = new int[machine.numRotors() - 1];
+        }
+
+        /** Test the rotors ORDER at the starting setting numbered START
+         *  (its settings being START's digits in base size(), leftmost
+         *  most significant) with plugboard IDENTITY, reporting any stops
+         *  to LISTENER. */
+        void test(int[] order, long start, Permutation identity,
+                  Listener listener) {
+            for (int i = _positions.length - 1; i >= 0; i -= 1) {
+                _positions[i] = (int) (start % _size);
+                start /= _size;
+            }
+            _machine.reconfigure(order, _positions, identity);
+            for (int i = 0; i < _length; i += 1) {
+                _machine.convert(0);
+                _machine.substitution(_rows, i * _size);
+            }
+            for (int x = 0; x < _size; x += 1) {
+                if (consistent(x)) {
+                    listener.stop(stop(order));
+                }
+            }
+        }
+
+        /** Return true iff the hypothesis that the test letter is plugged
+         *  to X leads to no contradiction, leaving the implied pairs in
+         *  _partner. */
+        private boolean consistent(int x) {
+            Arrays.fill(_partner, -1);
+            int head = 0, tail = 0;
+            if (!plug(_test, x)) {
+                return false;
+            }
+            _queue[tail++] = _test;
+            if (x != _test) {
+                _queue[tail++] = x;
+            }
+            while (head < tail) {
+                int a = _queue[head++];
+                int y = _partner[a];
+                for (int e = _edgeStart[a]; e < _edgeStart[a + 1]; e += 1) {
+                    int b = _edgeTo[e];
+                    int z = _rows[_edgePosn[e] * _size + y];
+                    boolean known = _partner[b] >= 0;
+                    boolean knownZ = _partner[z] >= 0;
+                    if (!plug(b, z)) {
+                        return false;
+                    }
+                    if (!known) {
+                        _queue[tail++] = b;
+                    }
+                    if (!knownZ && z != b) {
+                        _queue[tail++] = z;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Record that A and B are plugged together, returning false if
+         *  either is already plugged to another letter. */
+        private boolean plug(int a, int b) {
+            if (_partner[a] == -1 && _partner[b] == -1) {
+                _partner[a] = b;
+                _partner[b] = a;
+                return true;
+            }
+            return _partner[a] == b;
+        }
+
+        /** Return the stop for the rotors ORDER at my current starting
+         *  settings and plugboard hypothesis. */
+        private Stop stop(int[] order) {
+            Rotor[] rotors = _template.availableRotors();
+            String[] names = new String[order.length];
+            for (int i = 0; i < order.length; i += 1) {
+                names[i] = rotors[order[i]].name();
+            }
+            StringBuilder setting = new StringBuilder();
+            for (int posn : _positions) {
+                setting.append(_alphabet.toChar(posn));
+            }
+            StringBuilder plugs = new StringBuilder();
+            for (int a = 0; a < _size; a += 1) {
+                if (_partner[a] > a) {
+                    plugs.append(plugs.length() == 0 ? "(" : " (")
+                        .append(_alphabet.toChar(a))
+                        .append(_alphabet.toChar(_partner[a])).append(')');
+                }
+            }
+            return new Stop(names, setting.toString(), plugs.toString());
+        }
+
+        /** Machine used for the substitutions. */
+        private final Machine _machine;
+
+        /** Substitutions by crib position: entry I * size + C is S_I(C). */
+        private final int[] _rows;
+
+        /** Partner of each letter under the current hypothesis, or -1. */
+        private final int[] _partner;
+
+        /** Letters whose partners are yet to be propagated. */
+        private final int[] _queue;
+
+        /** Current starting settings. */
+        private final int[] _positions;
+    }
+
+    /** Add the menu edge from A to B at crib position POSN, using FILL to
+     *  track the next free entry for each letter. */
+    private void addEdge(int[] fill, int a, int b, int posn) {
+        _edgeTo[fill[a]] = b;
+        _edgePosn[fill[a]] = posn;
+        fill[a] += 1;
+    }
+
+    /** Return the index of CH in my alphabet, which must contain it. */
+    private int index(char ch) {
+        int result = _alphabet.toInt(ch);
+        if (result < 0) {
+            throw error("character '%c' not in alphabet", ch);
+        }
+        return result;
+    }
+
+    /** Number of starting settings of a rotor order between progress
+     *  reports. */
+    static final long PROGRESS_STEP = 1 << 12;
+
+    /** Nanoseconds per second. */
+    private static final double NANOS = 1e9;
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** Machine copied by each worker. */
+    private final Machine _template;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Length of the crib. */
+    private final int _length;
+
+    /** The menu, by letter: the edges from letter A are those numbered
+     *  _edgeStart[A] to _edgeStart[A + 1] - 1. */
+    private final int[] _edgeStart;
+
+    /** Letter at the other end of each edge. */
+    private final int[] _edgeTo;
+
+    /** Crib position of each edge. */
+    private final int[] _edgePosn;
+
+    /** Letter whose partner is hypothesized: the most connected one. */
+    private final int _test;
+
+    /** Number of starting settings tested. */
+    private final LongAdder _tested = new LongAdder();
+}
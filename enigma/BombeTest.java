@@ -0,0 +1,86 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Bombe class.
+ *  @author
+ */
+public class BombeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Collects stops. */
+    private static class Stops implements Bombe.Listener {
+        @Override
+        public void stop(Bombe.Stop stop) {
+            found.add(stop);
+        }
+
+        @Override
+        public synchronized void progress(long tested, double perSecond) {
+            this.tested = tested;
+            reports += 1;
+        }
+
+        /** Stops found so far. */
+        private final List<Bombe.Stop> found =
+            Collections.synchronizedList(new ArrayList<>());
+
+        /** Starting settings tested so far. */
+        private long tested;
+
+        /** Number of progress reports. */
+        private int reports;
+    }
+
+    @Test
+    public void checkFindsKey() {
+        String plugs = "(AZ) (BY) (CX) (DW) (ET) (HK)";
+        Machine mach = new Machine(UPPER, 4, 3, navalRotors());
+        mach.insertRotors(new String[] {"B", "I", "II", "III"});
+        mach.setRotors("QEV");
+        mach.setPlugboard(new Permutation(plugs, UPPER));
+        String crib = "WETTERVORHERSAGEBISKAYA";
+        String cipher = mach.convert(crib + "UNDNORDSEE");
+
+        Bombe bombe = new Bombe(mach, crib, cipher);
+        int[] order = new int[4];
+        String[] names = {"B", "I", "II", "III"};
+        for (int i = 0; i < names.length; i += 1) {
+            order[i] = mach.rotorId(names[i]);
+        }
+        Stops stops = new Stops();
+        bombe.search(List.of(order), stops);
+        assertEquals(26 * 26 * 26, stops.tested);
+        assertEquals(26 * 26 * 26 / Bombe.PROGRESS_STEP + 1, stops.reports);
+
+        boolean found = false;
+        for (Bombe.Stop stop : stops.found) {
+            if (stop.setting().equals("QEV") && !stop.plugboard().isEmpty()) {
+                found = true;
+                for (String pair : stop.plugboard().split(" ")) {
+                    assertTrue(msg("bombe", "pair %s", pair),
+                               plugs.contains(pair));
+                }
+            }
+        }
+        assertTrue("key not found among " + stops.found.size() + " stops",
+                   found);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkSelfEncipherment() {
+        new Bombe(new Machine(UPPER, 4, 3, navalRotors()), "ABC", "XBZ");
+    }
+}
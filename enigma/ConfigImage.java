@@ -0,0 +1,193 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import static enigma.EnigmaException.*;
+
+/** Reads and writes machine configurations as compact binary images, so
+ *  that a configuration need not be parsed as text each time it is used.
+ *  An image holds, as big-endian values: MAGIC and VERSION (ints); flags
+ *  (an int, BYTE_ALPHABET if the alphabet is the byte alphabet); the
+ *  alphabet size N (int) and its N characters; the rotor and pawl counts
+ *  (ints); the number of rotors (int); and for each rotor, its name's
+ *  length (int) and characters, its type ('M', 'N' or 'R', a byte), the
+ *  N indices of its wiring in its 0 setting (chars) and, for a moving
+ *  rotor, the number of its notches (int) and their indices (chars).
+ *  @author Izaac Ruiz
+ */
+class ConfigImage {
+
+    /** Write an image of the configuration of M to the file named
+     *  NAME. */
+    static void write(Machine m, String name) {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(name)))) {
+            Alphabet alpha = m.alphabet();
+            int size = alpha.size();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(alpha.isBytes() ? BYTE_ALPHABET : 0);
+            out.writeInt(size);
+            for (int i = 0; i < size; i += 1) {
+                out.writeChar(alpha.toChar(i));
+            }
+            out.writeInt(m.numRotors());
+            out.writeInt(m.numPawls());
+            Rotor[] rotors = m.availableRotors();
+            out.writeInt(rotors.length);
+            for (Rotor rotor : rotors) {
+                out.writeInt(rotor.name().length());
+                out.writeChars(rotor.name());
+                out.writeByte(rotor.reflecting() ? 'R'
+                              : rotor.rotates() ? 'M' : 'N');
+                for (int i = 0; i < size; i += 1) {
+                    out.writeChar(rotor.permutation().permute(i));
+                }
+                if (rotor.rotates()) {
+                    int notches = 0;
+                    for (int i = 0; i < size; i += 1) {
+                        notches += rotor.notchAt(i) ? 1 : 0;
+                    }
+                    out.writeInt(notches);
+                    for (int i = 0; i < size; i += 1) {
+                        if (rotor.notchAt(i)) {
+                            out.writeChar(i);
+                        }
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s: %s", name, excp.getMessage());
+        }
+    }
+
+    /** Return true iff the file FILE begins with an image's MAGIC
+     *  number. */
+    static boolean isImage(Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] head = in.readNBytes(Integer.BYTES);
+            return head.length == Integer.BYTES
+                && ByteBuffer.wrap(head).getInt() == MAGIC;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Return a machine configured from the image in FILE, which is
+     *  memory-mapped if MAP, and otherwise read whole. */
+    static Machine read(Path file, boolean map) {
+        ByteBuffer image;
+        try {
+            if (map) {
+                try (FileChannel channel = FileChannel.open(file)) {
+                    image = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                        channel.size());
+                }
+            } else {
+                image = ByteBuffer.wrap(Files.readAllBytes(file));
+            }
+        } catch (IOException excp) {
+            throw error("could not open %s", file);
+        }
+        try {
+            return read(image);
+        } catch (BufferUnderflowException excp) {
+            throw error("configuration image %s truncated", file);
+        }
+    }
+
+    /** Return a machine configured from IMAGE. */
+    private static Machine read(ByteBuffer image) {
+        if (image.getInt() != MAGIC || image.getInt() != VERSION) {
+            throw error("not a configuration image");
+        }
+        boolean bytes = (image.getInt() & BYTE_ALPHABET) != 0;
+        int size = count(image);
+        char[] chars = new char[size];
+        for (int i = 0; i < size; i += 1) {
+            chars[i] = image.getChar();
+        }
+        Alphabet alpha =
+            bytes ? Alphabet.bytes() : new Alphabet(new String(chars));
+        if (alpha.size() != size) {
+            throw error("bad alphabet in configuration image");
+        }
+        int numRotors = image.getInt();
+        int numPawls = image.getInt();
+        if (numRotors <= numPawls || numPawls < 0) {
+            throw error("bad rotor/pawl counts: %d %d", numRotors, numPawls);
+        }
+        HashMap<String, Rotor> rotors = new HashMap<>();
+        int[] wiring = new int[size];
+        for (int k = count(image); k > 0; k -= 1) {
+            char[] name = new char[count(image)];
+            for (int i = 0; i < name.length; i += 1) {
+                name[i] = image.getChar();
+            }
+            byte type = image.get();
+            for (int i = 0; i < size; i += 1) {
+                wiring[i] = image.getChar();
+            }
+            Rotor rotor = rotor(new String(name), type,
+                                new Permutation(wiring, alpha), image);
+            if (rotors.put(rotor.name(), rotor) != null) {
+                throw error("duplicate rotor %s", rotor.name());
+            }
+        }
+        return new Machine(alpha, numRotors, numPawls, rotors);
+    }
+
+    /** Return the rotor NAME of type TYPE with permutation PERM, reading
+     *  any notches that follow from IMAGE. */
+    private static Rotor rotor(String name, byte type, Permutation perm,
+                               ByteBuffer image) {
+        switch (type) {
+        case 'M':
+            StringBuilder notches = new StringBuilder();
+            for (int n = count(image); n > 0; n -= 1) {
+                int posn = image.getChar();
+                if (posn >= perm.size()) {
+                    throw error("notch %d out of range", posn);
+                }
+                notches.append(perm.alphabet().toChar(posn));
+            }
+            return new MovingRotor(name, perm, notches.toString());
+        case 'N':
+            return new FixedRotor(name, perm);
+        case 'R':
+            return new Reflector(name, perm);
+        default:
+            throw error("bad rotor type %d", type);
+        }
+    }
+
+    /** Return the next int in IMAGE, which must be a count no larger
+     *  than the rest of IMAGE could hold. */
+    private static int count(ByteBuffer image) {
+        int n = image.getInt();
+        if (n < 0 || n > image.remaining()) {
+            throw error("bad count %d in configuration image", n);
+        }
+        return n;
+    }
+
+    /** First four bytes of every image; the first is not ASCII, so no
+     *  text configuration begins with them. */
+    static final int MAGIC = 0x89454E47;
+
+    /** Version of the image format written by write. */
+    static final int VERSION = 2;
+
+    /** Flag marking an image over the byte alphabet. */
+    static final int BYTE_ALPHABET = 1;
+}
@@ -0,0 +1,68 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the ConfigImage class.
+ *  @author
+ */
+public class ConfigImageTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return a machine like M, read back from an image of it, memory-
+     *  mapped iff MAP. */
+    private Machine roundTrip(Machine m, boolean map) throws IOException {
+        File image = File.createTempFile("enigma", ".img");
+        try {
+            ConfigImage.write(m, image.getPath());
+            assertTrue(ConfigImage.isImage(image.toPath()));
+            return ConfigImage.read(image.toPath(), map);
+        } finally {
+            image.delete();
+        }
+    }
+
+    @Test
+    public void checkRoundTrip() throws IOException {
+        Machine original = new Machine(UPPER, 5, 3, navalRotors());
+        for (boolean map : new boolean[] {false, true}) {
+            Machine copy = roundTrip(original, map);
+            for (int i = 0; i < UPPER_STRING.length(); i += 1) {
+                assertEquals(UPPER_STRING.charAt(i),
+                             copy.alphabet().toChar(i));
+            }
+            assertEquals(5, copy.numRotors());
+            assertEquals(3, copy.numPawls());
+            for (Machine m : new Machine[] {original, copy}) {
+                m.insertRotors(new String[] {"C", "Gamma", "VI", "VII",
+                                             "VIII"});
+                m.setRotors("AZZY");
+                m.setPlugboard(new Permutation("(AQ) (EP)", UPPER));
+            }
+            for (int k = 0; k < 2000; k += 1) {
+                assertEquals(original.convert(k % 26), copy.convert(k % 26));
+            }
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkNotImage() throws IOException {
+        File text = File.createTempFile("enigma", ".conf");
+        try {
+            assertFalse(ConfigImage.isImage(text.toPath()));
+            ConfigImage.read(text.toPath(), false);
+        } finally {
+            text.delete();
+        }
+    }
+}
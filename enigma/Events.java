@@ -0,0 +1,64 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Flight Recorder events for the stages of processing.  Each is created,
+ *  begun and committed around its stage, with any fields that are costly
+ *  to compute filled in only when shouldCommit() says that the event is
+ *  recorded.  While recording is off, an event costs little more than its
+ *  allocation, which the compiler usually removes.
+ *  @author Izaac Ruiz
+ */
+final class Events {
+
+    /** Not instantiable. */
+    private Events() {
+    }
+
+    /** Loading a configuration, from text or an image. */
+    @Name("enigma.ConfigLoad")
+    @Label("Configuration Load")
+    @Category("Enigma")
+    static class ConfigLoad extends Event {
+        /** Name of the configuration file. */
+        @Label("Source")
+        String source;
+
+        /** True iff the configuration was a compiled image. */
+        @Label("Image")
+        boolean image;
+
+        /** Number of rotors described. */
+        @Label("Rotors")
+        int rotors;
+
+        /** Number of characters in the alphabet. */
+        @Label("Alphabet Size")
+        int alphabetSize;
+    }
+
+    /** Setting up a machine from a setting line. */
+    @Name("enigma.MachineSetup")
+    @Label("Machine Setup")
+    @Category("Enigma")
+    static class MachineSetup extends Event {
+        /** The setting line, without its '*'. */
+        @Label("Setting")
+        @Description("Rotors, settings and plugboard")
+        String setting;
+    }
+
+    /** Converting one message: the text following a setting line. */
+    @Name("enigma.Message")
+    @Label("Message")
+    @Category("Enigma")
+    static class Message extends Event {
+        /** Number of characters converted. */
+        @Label("Characters")
+        long characters;
+    }
+}
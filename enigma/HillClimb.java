@@ -0,0 +1,459 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only attack on a machine's key by hill climbing.  Each
+ *  restart picks a random rotor order and starting setting and climbs
+ *  first over the starting settings, one rotor at a time, scoring the
+ *  decryption without plugboard by its index of coincidence, and then
+ *  over plugboard pairs, scoring by index of coincidence and then, if
+ *  bigram statistics are given, by bigram log-probability.  While the
+ *  plugboard is searched, the machine's substitution at every position
+ *  is held in a table, so that each trial decryption is one pass of
+ *  table lookups into a buffer that is reused, with no allocation.
+ *  Restarts run concurrently on the common fork-join pool until a time
+ *  budget or restart count runs out; the time budget is also checked
+ *  within each climb.  Searches keep their state to themselves, so
+ *  several may run on one HillClimb at once.
+ *  @author Izaac Ruiz
+ */
+class HillClimb {
+
+    /** Receives the results of a search, possibly from several threads
+     *  at once. */
+    interface Listener {
+        /** Called with each RESULT that improves on all before it. */
+        void improved(Result result);
+
+        /** Called after each restart, with the number of RESTARTS so far
+         *  and the BEST score yet. */
+        void progress(long restarts, double best);
+    }
+
+    /** A key found by a search, with its score and decryption. */
+    static class Result {
+        /** A result with rotors ROTORS, starting setting SETTING,
+         *  plugboard cycles PLUGBOARD, SCORE and decryption PLAINTEXT. */
+        Result(String[] rotors, String setting, String plugboard,
+               double score, String plaintext) {
+            _rotors = rotors;
+            _setting = setting;
+            _plugboard = plugboard;
+            _score = score;
+            _plaintext = plaintext;
+        }
+
+        /** Return the names of my rotors, reflector first. */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /** Return my starting setting. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Return my plugboard cycles. */
+        String plugboard() {
+            return _plugboard;
+        }
+
+        /** Return my score: higher is better. */
+        double score() {
+            return _score;
+        }
+
+        /** Return the decryption of the ciphertext under my key. */
+        String plaintext() {
+            return _plaintext;
+        }
+
+        /** Return me as a setting line. */
+        @Override
+        public String toString() {
+            return ("* " + String.join(" ", _rotors) + " " + _setting + " "
+                    + _plugboard).trim();
+        }
+
+        /** Rotor names, reflector first. */
+        private final String[] _rotors;
+
+        /** Starting setting. */
+        private final String _setting;
+
+        /** Plugboard cycles. */
+        private final String _plugboard;
+
+        /** Score of the decryption. */
+        private final double _score;
+
+        /** Decryption. */
+        private final String _plaintext;
+    }
+
+    /** An attack on CIPHER, enciphered by a machine with the
+     *  configuration, but not the rotors, settings or plugboard, of
+     *  MACHINE.  BIGRAMS, if not null, holds the log-probability of each
+     *  bigram AB at A * size + B, as computed by bigrams(). */
+    HillClimb(Machine machine, String cipher, double[] bigrams) {
+        _template = machine.copy();
+        _template.useKeystream(false);
+        _alphabet = machine.alphabet();
+        _size = _alphabet.size();
+        if (bigrams != null && bigrams.length != _size * _size) {
+            throw error("bigram table has the wrong size");
+        }
+        _bigrams = bigrams;
+        _cipher = new int[cipher.length()];
+        for (int i = 0; i < _cipher.length; i += 1) {
+            _cipher[i] = _alphabet.toInt(cipher.charAt(i));
+            if (_cipher[i] < 0) {
+                throw error("character '%c' not in alphabet",
+                            cipher.charAt(i));
+            }
+        }
+    }
+
+    /** Return the bigram log-probabilities of TEXT over ALPHABET, in the
+     *  form the constructor takes.  Characters of TEXT not in ALPHABET
+     *  are skipped, and every bigram is counted once more than it
+     *  occurs, so that none has probability 0. */
+    static double[] bigrams(String text, Alphabet alphabet) {
+        int size = alphabet.size();
+        double[] result = new double[size * size];
+        long total = result.length;
+        int prev = -1;
+        for (int i = 0; i < text.length(); i += 1) {
+            int c = alphabet.toInt(Character.toUpperCase(text.charAt(i)));
+            if (c >= 0) {
+                if (prev >= 0) {
+                    result[prev * size + c] += 1;
+                    total += 1;
+                }
+                prev = c;
+            }
+        }
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = Math.log((result[k] + 1) / total);
+        }
+        return result;
+    }
+
+    /** Return the index of coincidence of TEXT, whose entries are
+     *  character indices below COUNTS.length, using COUNTS as scratch
+     *  space. */
+    static double indexOfCoincidence(int[] text, int[] counts) {
+        if (text.length < 2) {
+            return 0;
+        }
+        Arrays.fill(counts, 0);
+        for (int c : text) {
+            counts[c] += 1;
+        }
+        long sum = 0;
+        for (int n : counts) {
+            sum += (long) n * (n - 1);
+        }
+        return (double) sum / ((long) text.length * (text.length - 1));
+    }
+
+    /** Search every rotor order for at most MILLIS milliseconds,
+     *  reporting to LISTENER, and return the best result, or null if
+     *  none was found in time. */
+    Result search(long millis, Listener listener) {
+        return search(_template.rotorOrders(), millis, Long.MAX_VALUE,
+                      System.nanoTime(), listener);
+    }
+
+    /** Search the rotor orders ORDERS, each an array of rotor IDs
+     *  reflector first, with at most MAXRESTARTS restarts in at most
+     *  MILLIS milliseconds, randomized from SEED and reporting to
+     *  LISTENER.  Return the best result, or null if none was found. */
+    Result search(List<int[]> orders, long millis, long maxRestarts,
+                  long seed, Listener listener) {
+        if (orders.isEmpty()) {
+            throw error("no rotor orders to search");
+        }
+        long deadline = System.nanoTime() + millis * NANOS_PER_MILLI;
+        AtomicLong restarts = new AtomicLong();
+        int workers = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+        Best best = new Best();
+        IntStream.range(0, workers).parallel().forEach(w -> {
+            Worker worker = new Worker(_template.copy(), deadline);
+            SplittableRandom random = new SplittableRandom(seed + w);
+            while (System.nanoTime() < deadline
+                   && restarts.incrementAndGet() <= maxRestarts) {
+                int[] order = orders.get(random.nextInt(orders.size()));
+                int[] positions = new int[_template.numRotors() - 1];
+                for (int i = 0; i < positions.length; i += 1) {
+                    positions[i] = random.nextInt(_size);
+                }
+                best.offer(worker.climb(order, positions), listener);
+                listener.progress(Math.min(restarts.get(), maxRestarts),
+                                  best.get().score());
+            }
+        });
+        return best.get();
+    }
+
+    /** Return the result of one climb from the rotors ORDER at the
+     *  starting settings POSITIONS. */
+    Result climb(int[] order, int[] positions) {
+        return new Worker(_template.copy(), Long.MAX_VALUE)
+            .climb(order, positions.clone());
+    }
+
+    /** Return the result of climbing over plugboards alone, for the
+     *  rotors ORDER at the starting settings POSITIONS, as when these
+     *  are known from a bombe stop. */
+    Result climbPlugboard(int[] order, int[] positions) {
+        return new Worker(_template.copy(), Long.MAX_VALUE)
+            .climbPlugboard(order, positions);
+    }
+
+    /** The best result of one search, shared by its workers. */
+    private static class Best {
+        /** Make RESULT the best result if it improves on it, telling
+         *  LISTENER. */
+        synchronized void offer(Result result, Listener listener) {
+            if (_result == null || result.score() > _result.score()) {
+                _result = result;
+                listener.improved(result);
+            }
+        }
+
+        /** Return the best result so far, or null if there is none. */
+        synchronized Result get() {
+            return _result;
+        }
+
+        /** The best result so far, or null. */
+        private Result _result;
+    }
+
+    /** The per-thread state of a search. */
+    private class Worker {
+        /** A worker converting with MACHINE that stops climbing once
+         *  System.nanoTime() reaches DEADLINE. */
+        Worker(Machine machine, long deadline) {
+            _machine = machine;
+            _deadline = deadline;
+            _identity = machine.plugboard("");
+            _text = new int[_cipher.length];
+            _rows = new int[_cipher.length * _size];
+            _counts = new int[_size];
+            _plug = new int[_size];
+        }
+
+        /** Return the result of climbing from the rotors ORDER at the
+         *  starting settings POSITIONS, which are modified.  If my
+         *  deadline passes, return the best result reached so far. */
+        Result climb(int[] order, int[] positions) {
+            double best = settingScore(order, positions);
+            for (boolean better = true; better && !expired(); ) {
+                better = false;
+                for (int i = 0; i < positions.length && !expired();
+                     i += 1) {
+                    for (int delta : DELTAS) {
+                        int saved = positions[i];
+                        positions[i] = (saved + delta + _size) % _size;
+                        double score = settingScore(order, positions);
+                        if (score > best) {
+                            best = score;
+                            better = true;
+                        } else {
+                            positions[i] = saved;
+                        }
+                    }
+                }
+            }
+            return climbPlugboard(order, positions);
+        }
+
+        /** Return the result of climbing over plugboards alone, for the
+         *  rotors ORDER at the starting settings POSITIONS, stopping
+         *  early if my deadline passes. */
+        Result climbPlugboard(int[] order, int[] positions) {
+            _machine.reconfigure(order, positions, _identity);
+            for (int i = 0; i < _cipher.length; i += 1) {
+                _machine.convert(0);
+                _machine.substitution(_rows, i * _size);
+            }
+            for (int c = 0; c < _size; c += 1) {
+                _plug[c] = c;
+            }
+            climbPlugs(false);
+            if (_bigrams != null) {
+                climbPlugs(true);
+            }
+            double score = plugScore(_bigrams != null);
+            return result(order, positions, score);
+        }
+
+        /** Return the index of coincidence of the decryption by the
+         *  rotors ORDER at settings POSITIONS without plugboard. */
+        private double settingScore(int[] order, int[] positions) {
+            _machine.reconfigure(order, positions, _identity);
+            for (int i = 0; i < _text.length; i += 1) {
+                _text[i] = _machine.convert(_cipher[i]);
+            }
+            return indexOfCoincidence(_text, _counts);
+        }
+
+        /** Climb over plugboard pairs from _plug, toggling one pair at a
+         *  time while that improves the score, by bigrams if BIGRAMS
+         *  and otherwise by index of coincidence, until my deadline.
+         *  Return the final score. */
+        private double climbPlugs(boolean bigrams) {
+            double best = plugScore(bigrams);
+            for (boolean better = true; better && !expired(); ) {
+                better = false;
+                for (int a = 0; a < _size && !expired(); a += 1) {
+                    for (int b = a + 1; b < _size; b += 1) {
+                        int pa = _plug[a], pb = _plug[b];
+                        toggle(a, b);
+                        double score =
+                            pairs() <= MAX_PAIRS ? plugScore(bigrams)
+                            : Double.NEGATIVE_INFINITY;
+                        if (score > best) {
+                            best = score;
+                            better = true;
+                        } else {
+                            _plug[pa] = a;
+                            _plug[pb] = b;
+                            _plug[a] = pa;
+                            _plug[b] = pb;
+                        }
+                    }
+                }
+            }
+            return best;
+        }
+
+        /** Plug A and B together, first unplugging both, or leave them
+         *  both unplugged if they were plugged together. */
+        private void toggle(int a, int b) {
+            int pa = _plug[a], pb = _plug[b];
+            _plug[pa] = pa;
+            _plug[pb] = pb;
+            _plug[a] = a;
+            _plug[b] = b;
+            if (pa != b) {
+                _plug[a] = b;
+                _plug[b] = a;
+            }
+        }
+
+        /** Return true iff my deadline has passed. */
+        private boolean expired() {
+            return System.nanoTime() >= _deadline;
+        }
+
+        /** Return the number of plugged pairs in _plug. */
+        private int pairs() {
+            int result = 0;
+            for (int c = 0; c < _size; c += 1) {
+                result += _plug[c] > c ? 1 : 0;
+            }
+            return result;
+        }
+
+        /** Decrypt into _text with the substitutions in _rows and the
+         *  plugboard _plug, and return the score of the result. */
+        private double plugScore(boolean bigrams) {
+            for (int i = 0, row = 0; i < _text.length; i += 1, row += _size) {
+                _text[i] = _plug[_rows[row + _plug[_cipher[i]]]];
+            }
+            if (!bigrams) {
+                return indexOfCoincidence(_text, _counts);
+            }
+            double score = 0;
+            for (int i = 1; i < _text.length; i += 1) {
+                score += _bigrams[_text[i - 1] * _size + _text[i]];
+            }
+            return score;
+        }
+
+        /** Return the result for rotors ORDER at settings POSITIONS with
+         *  plugboard _plug, whose decryption is in _text and has
+         *  SCORE. */
+        private Result result(int[] order, int[] positions, double score) {
+            Rotor[] rotors = _template.availableRotors();
+            String[] names = new String[order.length];
+            for (int i = 0; i < order.length; i += 1) {
+                names[i] = rotors[order[i]].name();
+            }
+            StringBuilder setting = new StringBuilder();
+            for (int posn : positions) {
+                setting.append(_alphabet.toChar(posn));
+            }
+            StringBuilder plugs = new StringBuilder();
+            for (int a = 0; a < _size; a += 1) {
+                if (_plug[a] > a) {
+                    plugs.append(plugs.length() == 0 ? "(" : " (")
+                        .append(_alphabet.toChar(a))
+                        .append(_alphabet.toChar(_plug[a])).append(')');
+                }
+            }
+            StringBuilder plain = new StringBuilder();
+            for (int c : _text) {
+                plain.append(_alphabet.toChar(c));
+            }
+            return new Result(names, setting.toString(), plugs.toString(),
+                              score, plain.toString());
+        }
+
+        /** Machine used for decryption. */
+        private final Machine _machine;
+
+        /** Value of System.nanoTime() at which to stop climbing. */
+        private final long _deadline;
+
+        /** Plugboard with no pairs. */
+        private final Permutation _identity;
+
+        /** Decryption buffer, reused by every trial. */
+        private final int[] _text;
+
+        /** Substitutions by position: entry I * size + C is the
+         *  conversion of C at position I without plugboard. */
+        private final int[] _rows;
+
+        /** Scratch character counts. */
+        private final int[] _counts;
+
+        /** Plugboard being climbed: _plug[C] is C's partner, or C. */
+        private final int[] _plug;
+    }
+
+    /** Steps tried for each rotor setting. */
+    private static final int[] DELTAS = {1, -1};
+
+    /** Largest number of plugboard pairs tried. */
+    static final int MAX_PAIRS = 10;
+
+    /** Nanoseconds per millisecond. */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /** Machine copied by each worker. */
+    private final Machine _template;
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Bigram log-probabilities, or null. */
+    private final double[] _bigrams;
+
+    /** Ciphertext as character indices. */
+    private final int[] _cipher;
+}
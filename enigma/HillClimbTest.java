@@ -0,0 +1,168 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the HillClimb class.
+ *  @author
+ */
+public class HillClimbTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** English text for bigram statistics and messages. */
+    private static final String TEXT =
+        "BY THE SHORES OF GITCHE GUMEE BY THE SHINING BIG SEA WATER "
+        + "STOOD THE WIGWAM OF NOKOMIS DAUGHTER OF THE MOON NOKOMIS "
+        + "DARK BEHIND IT ROSE THE FOREST ROSE THE BLACK AND GLOOMY "
+        + "PINE TREES ROSE THE FIRS WITH CONES UPON THEM BRIGHT BEFORE "
+        + "IT BEAT THE WATER BEAT THE CLEAR AND SUNNY WATER BEAT THE "
+        + "SHINING BIG SEA WATER THERE THE WRINKLED OLD NOKOMIS NURSED "
+        + "THE LITTLE HIAWATHA ROCKED HIM IN HIS LINDEN CRADLE BEDDED "
+        + "SOFT IN MOSS AND RUSHES SAFELY BOUND WITH REINDEER SINEWS "
+        + "STILLED HIS FRETFUL WAIL BY SAYING HUSH THE NAKED BEAR WILL "
+        + "HEAR THEE LULLED HIM INTO SLUMBER SINGING EWA YEA MY LITTLE "
+        + "OWLET WHO IS THIS THAT LIGHTS THE WIGWAM WITH HIS GREAT EYES "
+        + "LIGHTS THE WIGWAM EWA YEA MY LITTLE OWLET";
+
+    @Test
+    public void checkIndexOfCoincidence() {
+        int[] counts = new int[26];
+        assertEquals(1.0, HillClimb.indexOfCoincidence(new int[] {3, 3, 3},
+                                                       counts), 1e-9);
+        int[] all = new int[26];
+        for (int i = 0; i < all.length; i += 1) {
+            all[i] = i;
+        }
+        assertEquals(0.0, HillClimb.indexOfCoincidence(all, counts), 1e-9);
+    }
+
+    @Test
+    public void checkRecoversPlugboard() {
+        String plugs = "(AZ) (CX) (HK) (PQ)";
+        Machine mach = new Machine(UPPER, 4, 3, navalRotors());
+        mach.insertRotors(new String[] {"B", "I", "II", "III"});
+        mach.setRotors("QEV");
+        mach.setPlugboard(new Permutation(plugs, UPPER));
+        String plain = TEXT.replace(" ", "");
+        String cipher = mach.convert(plain);
+
+        HillClimb attack = new HillClimb(mach, cipher,
+                                         HillClimb.bigrams(TEXT, UPPER));
+        int[] order = new int[4];
+        String[] names = {"B", "I", "II", "III"};
+        for (int i = 0; i < names.length; i += 1) {
+            order[i] = mach.rotorId(names[i]);
+        }
+        HillClimb.Result result =
+            attack.climbPlugboard(order, new int[] {UPPER.toInt('Q'),
+                                                    UPPER.toInt('E'),
+                                                    UPPER.toInt('V')});
+        assertEquals("QEV", result.setting());
+        assertEquals(plugs, result.plugboard());
+        assertEquals(plain, result.plaintext());
+        assertEquals("* B I II III QEV " + plugs, result.toString());
+
+        long[] progress = new long[1];
+        HillClimb.Result best = attack.search(List.of(order), 10000, 4, 1,
+            new HillClimb.Listener() {
+                @Override
+                public void improved(HillClimb.Result result) {
+                }
+
+                @Override
+                public synchronized void progress(long restarts,
+                                                  double score) {
+                    progress[0] = Math.max(progress[0], restarts);
+                }
+            });
+        assertNotNull(best);
+        assertEquals(4, progress[0]);
+    }
+
+    /** Return the IDs in MACH of the rotors NAMES. */
+    private static int[] order(Machine mach, String... names) {
+        int[] result = new int[names.length];
+        for (int i = 0; i < names.length; i += 1) {
+            result[i] = mach.rotorId(names[i]);
+        }
+        return result;
+    }
+
+    /** A listener that records the best score it is told of. */
+    private static class BestListener implements HillClimb.Listener {
+        @Override
+        public synchronized void improved(HillClimb.Result result) {
+            _best = Math.max(_best, result.score());
+        }
+
+        @Override
+        public void progress(long restarts, double score) {
+        }
+
+        /** Best score reported. */
+        private double _best = Double.NEGATIVE_INFINITY;
+    }
+
+    @Test
+    public void checkConcurrentSearches() throws InterruptedException {
+        Machine mach = new Machine(UPPER, 4, 3, navalRotors());
+        mach.insertRotors(new String[] {"B", "I", "II", "III"});
+        mach.setRotors("QEV");
+        HillClimb attack = new HillClimb(mach,
+                                         mach.convert(TEXT.replace(" ", "")),
+                                         null);
+        List<int[]> orders = List.of(order(mach, "B", "I", "II", "III"),
+                                     order(mach, "B", "III", "II", "I"));
+        BestListener[] listeners = new BestListener[4];
+        HillClimb.Result[] results = new HillClimb.Result[listeners.length];
+        Thread[] threads = new Thread[listeners.length];
+        for (int t = 0; t < threads.length; t += 1) {
+            int k = t;
+            listeners[k] = new BestListener();
+            threads[k] = new Thread(() -> {
+                results[k] = attack.search(orders, 10000, 3, k,
+                                           listeners[k]);
+            });
+            threads[k].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int t = 0; t < threads.length; t += 1) {
+            assertNotNull(results[t]);
+            assertEquals(msg("search " + t, "wrong best result"),
+                         listeners[t]._best, results[t].score(), 0.0);
+        }
+    }
+
+    @Test
+    public void checkDeadlineWithinClimb() {
+        Machine mach = new Machine(UPPER, 4, 3, navalRotors());
+        mach.insertRotors(new String[] {"B", "I", "II", "III"});
+        mach.setRotors("QEV");
+        Random random = new Random(5);
+        char[] plain = new char[100000];
+        for (int i = 0; i < plain.length; i += 1) {
+            plain[i] = (char) ('A' + random.nextInt(26));
+        }
+        HillClimb attack =
+            new HillClimb(mach, mach.convert(new String(plain)),
+                          HillClimb.bigrams(TEXT, UPPER));
+        long start = System.nanoTime();
+        attack.search(List.of(order(mach, "B", "I", "II", "III")), 50, 1, 1,
+                      new BestListener());
+        long millis = (System.nanoTime() - start) / 1000000;
+        assertTrue(msg("search", "took %d ms for 50 ms", millis),
+                   millis < 1000);
+    }
+}
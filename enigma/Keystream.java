@@ -0,0 +1,104 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.stream.IntStream;
+
+/** The substitutions made by a configured machine at every position of a
+ *  message, for fixed rotors, settings and plugboard.  The moving rotors
+ *  pass through at most a few transient states before entering a cycle,
+ *  so one row per transient state and one per cycle state describe every
+ *  position: the substitution at position P is row P for P below the
+ *  transient length T, and row T + (P - T) mod period otherwise.
+ *  @author Izaac Ruiz
+ */
+class Keystream {
+
+    /** A keystream beginning at settings ORIGIN whose rows of SIZE
+     *  entries are in TABLE, with PREFIX rows before a cycle of
+     *  PERIOD rows. */
+    private Keystream(int[] origin, int[] table, int size, int prefix,
+                      int period) {
+        _origin = origin;
+        _table = table;
+        _size = size;
+        _prefix = prefix;
+        _period = period;
+    }
+
+    /** Return the keystream of M from the settings last given to its
+     *  setRotors, or null if it would have more than MAX_ENTRIES
+     *  entries.  The rows are computed in parallel on the common
+     *  fork-join pool, each worker using its own copy of M. */
+    static Keystream build(Machine m) {
+        if (m.origin() == null
+            || m.odometer().numStates() > Odometer.MAX_TABLE_STATES) {
+            return null;
+        }
+        Machine base = m.copy();
+        base.useKeystream(false);
+        base.seek(0);
+        Odometer odometer = base.odometer();
+        ArrayList<Long> transients = new ArrayList<>();
+        long state = odometer.step(base.movingState());
+        while (!odometer.onCycle(state)) {
+            transients.add(state);
+            state = odometer.step(state);
+        }
+        int[] cycle = odometer.cycleFrom(state);
+        int size = m.alphabet().size();
+        int rows = transients.size() + cycle.length;
+        if ((long) rows * size > MAX_ENTRIES) {
+            return null;
+        }
+        int[] table = new int[rows * size];
+        ThreadLocal<Machine> machines = ThreadLocal.withInitial(base::copy);
+        IntStream.range(0, rows).parallel().forEach(row -> {
+            Machine worker = machines.get();
+            worker.setMovingState(row < transients.size()
+                                  ? transients.get(row)
+                                  : cycle[row - transients.size()]);
+            worker.substitution(table, row * size);
+        });
+        return new Keystream(m.origin(), table, size, transients.size(),
+                             cycle.length);
+    }
+
+    /** Return the conversion of character index C at POSITION >= 0, the
+     *  number of characters converted before it since my origin. */
+    int convert(long position, int c) {
+        long row = position;
+        if (row >= _prefix) {
+            row = _prefix + (row - _prefix) % _period;
+        }
+        return _table[(int) row * _size + c];
+    }
+
+    /** Return the rotor settings at which I begin, by slot, as given by
+     *  Machine.origin(). */
+    int[] origin() {
+        return _origin;
+    }
+
+    /** Return the length of my stepping period. */
+    int period() {
+        return _period;
+    }
+
+    /** Largest number of entries in a keystream table. */
+    static final long MAX_ENTRIES = 1 << 24;
+
+    /** Rotor settings at which I begin. */
+    private final int[] _origin;
+
+    /** Substitutions by row: entry R * _size + C converts C at row R. */
+    private final int[] _table;
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** Number of positions before the stepping period begins. */
+    private final int _prefix;
+
+    /** Number of positions in the stepping period. */
+    private final int _period;
+}
@@ -0,0 +1,129 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/** A line-at-a-time reader over a byte channel.  Bytes are decoded in
+ *  large blocks into a reusable character buffer, and each line is
+ *  exposed in place as a range of a reusable array, so reading allocates
+ *  nothing once the buffers have grown to the longest line.
+ *  @author Izaac Ruiz
+ */
+class LineReader {
+
+    /** A reader of lines from IN, decoded using CHARSET. */
+    LineReader(ReadableByteChannel in, Charset charset) {
+        _in = in;
+        _decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        _chars = CharBuffer.allocate(BUFFER_SIZE);
+        _chars.flip();
+        _line = new char[INITIAL_LINE];
+    }
+
+    /** Advance to the next line of input, returning false if there is
+     *  none.  The line terminator ("\n" or "\r\n") is not included. */
+    boolean next() throws IOException {
+        _length = 0;
+        boolean any = false;
+        while (_chars.hasRemaining() || fill()) {
+            any = true;
+            char[] buf = _chars.array();
+            int start = _chars.position(), end = _chars.limit();
+            int i;
+            for (i = start; i < end && buf[i] != '\n'; i += 1) {
+                continue;
+            }
+            append(buf, start, i - start);
+            if (i < end) {
+                _chars.position(i + 1);
+                if (_length > 0 && _line[_length - 1] == '\r') {
+                    _length -= 1;
+                }
+                return true;
+            }
+            _chars.position(end);
+        }
+        return any;
+    }
+
+    /** Return the array holding the current line, which occupies its
+     *  first length() characters.  Its contents change on each call of
+     *  next(). */
+    char[] line() {
+        return _line;
+    }
+
+    /** Return the length of the current line. */
+    int length() {
+        return _length;
+    }
+
+    /** Append the LEN characters of BUF starting at OFF to _line. */
+    private void append(char[] buf, int off, int len) {
+        if (_length + len > _line.length) {
+            _line = Arrays.copyOf(_line,
+                                  Math.max(2 * _line.length, _length + len));
+        }
+        System.arraycopy(buf, off, _line, _length, len);
+        _length += len;
+    }
+
+    /** Decode more input into _chars, returning false at end of input. */
+    private boolean fill() throws IOException {
+        _chars.clear();
+        while (_chars.position() == 0 && !_done) {
+            if (!_eof && _in.read(_bytes) < 0) {
+                _eof = true;
+            }
+            _bytes.flip();
+            CoderResult result = _decoder.decode(_bytes, _chars, _eof);
+            _bytes.compact();
+            if (_eof && result.isUnderflow()) {
+                _decoder.flush(_chars);
+                _done = true;
+            }
+        }
+        _chars.flip();
+        return _chars.hasRemaining();
+    }
+
+    /** Size of the byte and character buffers. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Initial capacity of _line. */
+    private static final int INITIAL_LINE = 256;
+
+    /** Source of input bytes. */
+    private final ReadableByteChannel _in;
+
+    /** Decoder from _bytes to _chars. */
+    private final CharsetDecoder _decoder;
+
+    /** Bytes read but not yet decoded (in write mode). */
+    private final ByteBuffer _bytes;
+
+    /** Characters decoded but not yet consumed (in read mode). */
+    private final CharBuffer _chars;
+
+    /** The current line. */
+    private char[] _line;
+
+    /** Length of the current line. */
+    private int _length;
+
+    /** True once _in has reported end of input. */
+    private boolean _eof;
+
+    /** True once all input has been decoded. */
+    private boolean _done;
+}
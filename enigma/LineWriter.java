@@ -0,0 +1,86 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/** A buffered character writer over a byte channel.  Characters collect
+ *  in one large reusable buffer and are encoded and written in blocks.
+ *  @author Izaac Ruiz
+ */
+class LineWriter {
+
+    /** A writer to OUT, encoding with CHARSET. */
+    LineWriter(WritableByteChannel out, Charset charset) {
+        _out = out;
+        _encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _chars = CharBuffer.allocate(BUFFER_SIZE);
+        _bytes = ByteBuffer.allocateDirect(
+            (int) (BUFFER_SIZE * _encoder.maxBytesPerChar()));
+    }
+
+    /** Write character C. */
+    void write(char c) throws IOException {
+        if (!_chars.hasRemaining()) {
+            drain();
+        }
+        _chars.put(c);
+    }
+
+    /** Write the characters of S. */
+    void write(CharSequence s) throws IOException {
+        for (int i = 0, n = s.length(); i < n; ) {
+            if (!_chars.hasRemaining()) {
+                drain();
+            }
+            int k = Math.min(n - i, _chars.remaining());
+            _chars.append(s, i, i + k);
+            i += k;
+        }
+    }
+
+    /** Write the line terminator. */
+    void newLine() throws IOException {
+        write('\n');
+    }
+
+    /** Write all buffered characters to the channel. */
+    void flush() throws IOException {
+        drain();
+    }
+
+    /** Encode and write the contents of _chars, leaving it empty. */
+    private void drain() throws IOException {
+        _chars.flip();
+        while (_chars.hasRemaining()) {
+            _encoder.encode(_chars, _bytes, false);
+            _bytes.flip();
+            while (_bytes.hasRemaining()) {
+                _out.write(_bytes);
+            }
+            _bytes.clear();
+        }
+        _chars.clear();
+    }
+
+    /** Size of the character buffer. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Destination of output bytes. */
+    private final WritableByteChannel _out;
+
+    /** Encoder from _chars to _bytes. */
+    private final CharsetEncoder _encoder;
+
+    /** Characters not yet written (in write mode). */
+    private final CharBuffer _chars;
+
+    /** Encoded bytes awaiting a write. */
+    private final ByteBuffer _bytes;
+}
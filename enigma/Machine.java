@@ -2,8 +2,15 @@ package enigma;
 
 
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 
 import static enigma.EnigmaException.*;
@@ -22,6 +29,76 @@ class Machine {
         _numRotors = numRotors;
         _pawls = pawls;
         _allRotors = allRotors;
+        _machineRotors = new ArrayList<>();
+        String[] names = allRotors.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        _rotorById = new Rotor[names.length];
+        _rotorIds = new HashMap<>();
+        for (int id = 0; id < names.length; id += 1) {
+            _rotorById[id] = allRotors.get(names[id]);
+            _rotorIds.put(names[id], id);
+        }
+        _slotIds = new int[numRotors];
+        Arrays.fill(_slotIds, -1);
+        _settings = new int[numRotors];
+        _start = new int[numRotors];
+        _sandwich = new int[alpha.size()];
+        _moving = new int[pawls];
+        _odometers = new ConcurrentHashMap<>();
+        _settingCache = new SettingCache();
+    }
+
+    /** A copy of M, as described at copy(). */
+    private Machine(Machine m) {
+        _alphabet = m._alphabet;
+        _numRotors = m._numRotors;
+        _pawls = m._pawls;
+        _allRotors = m._allRotors;
+        _rotorById = m._rotorById;
+        _rotorIds = m._rotorIds;
+        _odometers = m._odometers;
+        _settingCache = m._settingCache;
+        _machineRotors = new ArrayList<>(m._machineRotors);
+        _slotIds = m._slotIds.clone();
+        _settings = m._settings.clone();
+        _start = m._start.clone();
+        _sandwich = m._sandwich.clone();
+        _sandwichValid = m._sandwichValid;
+        _moving = new int[_pawls];
+        _fast = m._fast;
+        _plugboard = m._plugboard;
+        _odometer = m._odometer;
+        _state = m._state;
+        _started = m._started;
+        _position = m._position;
+        _rotorsStale = m._rotorsStale;
+        _keystream = m._keystream;
+        _useKeystream = m._useKeystream;
+        if (m._entry != null && m._endTablesOwned) {
+            _entry = _entry0 = m._entry.clone();
+            _exit = _exit0 = m._exit.clone();
+            _endTablesOwned = true;
+        } else {
+            _entry = _entry0 = m._entry;
+            _exit = _exit0 = m._exit;
+        }
+    }
+
+    /** Return a copy of me: a machine with the same configuration,
+     *  rotors, settings and plugboard that can be used concurrently with
+     *  me.  Rotors never change, so the copy shares them, their IDs, my
+     *  odometers and my setting cache, and owns only its settings,
+     *  sandwich and plugboard cache.  It shares my end tables too, unless
+     *  I built them myself and so may rebuild them in place, in which
+     *  case it gets its own.  Copying only reads me, so any number of
+     *  threads may copy me at once, provided none is modifying me. */
+    Machine copy() {
+        return new Machine(this);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
     }
 
     /** Return the number of rotor slots I have. */
@@ -34,92 +111,737 @@ class Machine {
         return _pawls;
     }
 
+    /** Return my available rotors, indexed by their IDs. */
+    Rotor[] availableRotors() {
+        return _rotorById.clone();
+    }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
-        for (String rotor: rotors) {
-            if (!_allRotors.containsKey(rotor)) {
-                throw new EnigmaException
-                        ("Rotor specified is not in allRotors");}
-            _machineRotors.add(_allRotors.get(rotor));
+        int[] ids = new int[rotors.length];
+        for (int i = 0; i < rotors.length; i += 1) {
+            ids[i] = rotorId(rotors[i]);
+            if (ids[i] < 0) {
+                throw error("rotor %s not available", rotors[i]);
+            }
+        }
+        insertRotors(ids);
+    }
+
+    /** Set my rotor slots to the available rotors whose IDs, as given by
+     *  rotorId, are ROTORIDS (ROTORIDS[0] being the reflector's), all at
+     *  their 0 setting. */
+    private void insertRotors(int[] rotorIds) {
+        placeRotors(rotorIds);
+        buildEndTables();
+    }
+
+    /** Set my rotor slots as for insertRotors(ROTORIDS), but without
+     *  rebuilding my end tables. */
+    private void placeRotors(int[] rotorIds) {
+        if (rotorIds.length != numRotors()) {
+            throw error("wrong number of rotors");
+        }
+        Arrays.fill(_slotIds, -1);
+        _machineRotors.clear();
+        for (int id : rotorIds) {
+            if (id < 0 || id >= _rotorById.length) {
+                throw error("no rotor with ID %d", id);
+            }
+            Rotor r = _rotorById[id];
+            r.compile();
+            _machineRotors.add(r);
         }
         if (!_machineRotors.get(0).reflecting()) {
             throw new EnigmaException("Machine not constructed correctly");
         }
+        checkPawls();
+        System.arraycopy(rotorIds, 0, _slotIds, 0, rotorIds.length);
+        Arrays.fill(_settings, 0);
+        _fast = _machineRotors.get(_machineRotors.size() - 1);
+        _sandwichValid = false;
+        _odometer = null;
+        _state = movingState();
+        _keystream = null;
+    }
+
+    /** Return the ID of my available rotor named NAME, or -1 if there is
+     *  none.  IDs are the same for every machine with the same available
+     *  rotors. */
+    int rotorId(String name) {
+        Integer id = _rotorIds.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /** Return every rotor order I allow, as rotor IDs (see rotorId),
+     *  reflector first: a reflector, then non-moving rotors in the slots
+     *  without pawls and moving rotors in those with them, none
+     *  repeated. */
+    List<int[]> rotorOrders() {
+        ArrayList<int[]> result = new ArrayList<>();
+        addOrders(new int[numRotors()], 0, result);
+        return result;
+    }
+
+    /** Add the rotor orders that extend the first SLOT entries of ORDER
+     *  to RESULT. */
+    private void addOrders(int[] order, int slot, List<int[]> result) {
+        if (slot == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        int first = numRotors() - numPawls();
+        for (int id = 0; id < _rotorById.length; id += 1) {
+            Rotor rotor = _rotorById[id];
+            boolean fits = slot == 0 ? rotor.reflecting()
+                : slot >= first ? rotor.rotates()
+                : !rotor.rotates() && !rotor.reflecting();
+            boolean used = false;
+            for (int i = 0; i < slot; i += 1) {
+                used |= order[i] == id;
+            }
+            if (fits && !used) {
+                order[slot] = id;
+                addOrders(order, slot + 1, result);
+            }
+        }
+    }
+
+    /** Configure me as insertRotors, setRotors and setPlugboard would,
+     *  with the available rotors whose IDs are ROTORIDS (reflector
+     *  first), the settings POSITIONS (leftmost first, not counting the
+     *  reflector) as indices in my alphabet, and PLUGBOARD.  Rotors and
+     *  a plugboard that are unchanged since the last configuration are
+     *  kept as they are, and no new arrays are allocated unless they
+     *  change. */
+    void reconfigure(int[] rotorIds, int[] positions,
+                     Permutation plugboard) {
+        if (!Arrays.equals(rotorIds, _slotIds)) {
+            _plugboard = plugboard;
+            insertRotors(rotorIds);
+        } else if (plugboard != _plugboard) {
+            setPlugboard(plugboard);
+        }
+        setRotors(positions);
+    }
+
+    /** An immutable snapshot of a machine's configuration at its starting
+     *  settings: its rotors, settings and plugboard, and the tables
+     *  derived from them.  A template may be applied by configure() to
+     *  any machine that shares its rotors, from any thread. */
+    static final class Template {
+        /** A template of M, which must be at its starting settings. */
+        private Template(Machine m) {
+            _rotorIds = m._slotIds.clone();
+            _start = m._start.clone();
+            _plugboard = m._plugboard;
+            _entry = m._entry;
+            _exit = m._exit;
+            _state = m._state;
+            _sandwich = m._sandwich.clone();
+        }
+
+        /** Return the IDs of the rotors in each slot. */
+        int[] rotorIds() {
+            return _rotorIds.clone();
+        }
+
+        /** Return the starting settings, by slot. */
+        int[] start() {
+            return _start.clone();
+        }
+
+        /** Return the plugboard. */
+        Permutation plugboard() {
+            return _plugboard;
+        }
+
+        /** Return the entry table, laid out as a machine's, or null if
+         *  the rightmost rotor is not compiled.  It must not be
+         *  modified. */
+        int[] entry() {
+            return _entry;
+        }
+
+        /** Return the exit table, laid out as entry(), or null. */
+        int[] exit() {
+            return _exit;
+        }
+
+        /** Return the packed state of the moving rotors. */
+        long state() {
+            return _state;
+        }
+
+        /** Store the sandwich at the starting settings in DST, starting
+         *  at OFF. */
+        void sandwich(int[] dst, int off) {
+            System.arraycopy(_sandwich, 0, dst, off, _sandwich.length);
+        }
+
+        /** Return the approximate number of bytes I occupy, not counting
+         *  my end tables, which other templates may share. */
+        long weight() {
+            long ints = _rotorIds.length + _start.length + _sandwich.length;
+            return OVERHEAD + Integer.BYTES * ints;
+        }
+
+        /** Approximate size of a template apart from its arrays. */
+        private static final long OVERHEAD = 128;
+
+        /** IDs of the rotors in each slot. */
+        private final int[] _rotorIds;
+
+        /** Starting settings by slot. */
+        private final int[] _start;
+
+        /** Plugboard. */
+        private final Permutation _plugboard;
+
+        /** End tables, shared with the machine captured, which no longer
+         *  overwrites them, or null. */
+        private final int[] _entry, _exit;
+
+        /** Packed state of the moving rotors at the starting settings. */
+        private final long _state;
+
+        /** Sandwich at the starting settings. */
+        private final int[] _sandwich;
+    }
+
+    /** Return a template of my configuration, moving me back to the
+     *  settings last given to setRotors.  My rotors must have been
+     *  set. */
+    Template template() {
+        if (!_started) {
+            throw error("rotors not set");
+        }
+        restart();
+        if (!_sandwichValid) {
+            composeSandwich();
+        }
+        _endTablesOwned = false;
+        return new Template(this);
+    }
+
+    /** Configure me as TEMPLATE, made by template() on me or on a
+     *  machine that shares my rotors, records.  This costs no more than
+     *  copying TEMPLATE's settings, state and sandwich, plus placing the
+     *  rotors if they differ from mine. */
+    void configure(Template template) {
+        if (!Arrays.equals(template._rotorIds, _slotIds)) {
+            placeRotors(template._rotorIds);
+        }
+        if (template._plugboard != _plugboard) {
+            _plugboard = template._plugboard;
+            _keystream = null;
+        }
+        _entry = _entry0 = template._entry;
+        _exit = _exit0 = template._exit;
+        _endTablesOwned = false;
+        System.arraycopy(template._start, 0, _start, 0, _numRotors);
+        System.arraycopy(template._start, 1, _settings, 1, _numRotors - 1);
+        atStart(template._state);
+        System.arraycopy(template._sandwich, 0, _sandwich, 0,
+                         _sandwich.length);
+        _sandwichValid = true;
+    }
 
+    /** Return the cache of templates by setting line shared by me and
+     *  my copies. */
+    SettingCache settingCache() {
+        return _settingCache;
+    }
+
+    /** Return the plugboard with the cycles CYCLES in my alphabet,
+     *  reusing the one returned for the same CYCLES before, if any. */
+    Permutation plugboard(String cycles) {
+        Permutation result = _plugboards.get(cycles);
+        if (result == null) {
+            result = new Permutation(cycles, _alphabet);
+            if (_plugboards.size() >= MAX_CACHED) {
+                _plugboards.clear();
+            }
+            _plugboards.put(cycles, result);
+        }
+        return result;
+    }
+
+    /** Check that my moving rotors occupy exactly the slots that have
+     *  pawls. */
+    private void checkPawls() {
+        int first = numRotors() - numPawls();
+        for (int i = 1; i < numRotors(); i += 1) {
+            Rotor rotor = _machineRotors.get(i);
+            if (rotor.rotates() && i < first) {
+                throw new EnigmaException("Too many pawls given");
+            }
+            if (!rotor.rotates() && i >= first) {
+                throw error("rotor %s cannot move", rotor.name());
+            }
+        }
     }
 
     /** Set my rotors according to SETTING, which must be a string of
      *  numRotors()-1 characters in my alphabet. The first letter refers
      *  to the leftmost rotor setting (not counting the reflector).  */
     void setRotors(String setting) {
-        for (int i = 0; i < numRotors()-1; i++) {
-            if (!_machineRotors.get(i).reflecting()) {
-                _machineRotors.get(i).set(setting.charAt(i - 1));
+        if (setting.length() != numRotors() - 1) {
+            throw error("wrong number of rotor settings: %s", setting);
+        }
+        for (int i = 1; i < numRotors(); i++) {
+            char posn = setting.charAt(i - 1);
+            if (!_alphabet.contains(posn)) {
+                throw error("setting '%c' not in alphabet", posn);
             }
         }
+        for (int i = 1; i < numRotors(); i++) {
+            _start[i] = _alphabet.toInt(setting.charAt(i - 1));
+        }
+        restart();
+    }
+
+    /** Set my rotors to POSITIONS, the indices in my alphabet of the
+     *  settings of my rotors, leftmost first, not counting the
+     *  reflector. */
+    void setRotors(int[] positions) {
+        if (positions.length != numRotors() - 1) {
+            throw error("wrong number of rotor settings");
+        }
+        for (int posn : positions) {
+            if (posn < 0 || posn >= _alphabet.size()) {
+                throw error("setting %d out of range", posn);
+            }
+        }
+        System.arraycopy(positions, 0, _start, 1, positions.length);
+        restart();
+    }
+
+    /** Move my rotors back to the settings last given to setRotors. */
+    private void restart() {
+        System.arraycopy(_start, 1, _settings, 1, numRotors() - 1);
+        atStart(movingState());
+    }
+
+    /** Record that my rotors are at the settings last given to
+     *  setRotors, where the packed state of my moving rotors is STATE. */
+    private void atStart(long state) {
+        _sandwichValid = false;
+        _state = state;
+        _started = true;
+        _position = 0;
+        _rotorsStale = false;
+        if (_keystream != null
+            && !Arrays.equals(_keystream.origin(), _start)) {
+            _keystream = null;
+        }
     }
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
         this._plugboard = plugboard;
+        buildEndTables();
+        _keystream = null;
+    }
+
+    /** Turn keystream mode on if ON, else off.  In keystream mode, the
+     *  substitution made at every position of the stepping period that
+     *  begins at the settings last given to setRotors is computed once,
+     *  in parallel, when first needed, and each conversion thereafter is
+     *  a table lookup by position.  The mode is turned off again if the
+     *  table would exceed Keystream.MAX_ENTRIES entries. */
+    void useKeystream(boolean on) {
+        if (!on) {
+            syncRotors();
+        }
+        _useKeystream = on;
     }
 
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
-        int pawlLeft = numPawls();
-        int saveState = c;
-        boolean plugboardImplemented = (!_plugboard.equals(""));
-
-        for (int i = 0; i < numRotors(); i++) {
-            if (!_machineRotors.get(i).reflecting()) {
-                if (i == numRotors()-1) {
-                    _machineRotors.get(i).advance();
-                    pawlLeft -= 1;
-                }
-                else if (_machineRotors.get(i+1).atNotch() && _machineRotors.get(i).rotates()) {
-                    _machineRotors.get(i).advance();
-                    pawlLeft -= 1;
-                }
-                else if (_machineRotors.get(i).atNotch() && _machineRotors.get(i-1).rotates()) {
-                    _machineRotors.get(i-1).advance();
-                    pawlLeft -= 1;
-                }
-            }
+        if (_useKeystream && keystream() != null) {
+            int result = _keystream.convert(_position, c);
+            _position += 1;
+            _rotorsStale = true;
+            return result;
         }
-        if (pawlLeft != 0) {
-            throw new EnigmaException("Too many pawls given");
+        syncRotors();
+        _position += 1;
+        Odometer odometer = odometer();
+        long state = _state;
+        _state = odometer.next(state);
+        if (odometer.slowMoves(state)) {
+            setMovingState(_state);
+        } else if (odometer.numRotors() > 0) {
+            _settings[_numRotors - 1] = odometer.fastSetting(_state);
         }
-        if (plugboardImplemented) {
-            saveState = _plugboard.permute(saveState);
+        if (!_sandwichValid) {
+            composeSandwich();
         }
-        for (int f = numRotors()-1; f >= 0; f--) {
-            saveState = _machineRotors.get(f).convertForward(saveState);
+        return through(c);
+    }
+
+    /** Return the conversion of C at my current settings, without
+     *  advancing. */
+    private int through(int c) {
+        int fast = _settings[_numRotors - 1];
+        if (_entry != null) {
+            int row = fast * _sandwich.length;
+            return _exit[row + _sandwich[_entry[row + c]]];
         }
-        for (int b = 0; b < numRotors()-1; b++) {
-            saveState = _machineRotors.get(b).convertBackward(saveState);
+        int saveState = c;
+        if (_plugboard != null) {
+            saveState = _plugboard.permute(saveState);
         }
-        if (plugboardImplemented) {
+        saveState = _fast.convertForward(saveState, fast);
+        saveState = _sandwich[saveState];
+        saveState = _fast.convertBackward(saveState, fast);
+        if (_plugboard != null) {
             saveState = _plugboard.invert(saveState);
         }
         return saveState;
+    }
 
+    /** Move my rotors to the settings they would have after N >= 0 more
+     *  keystrokes, without converting anything. */
+    void advanceBy(long n) {
+        if (n < 0) {
+            throw error("cannot advance by a negative count");
+        }
+        _position += n;
+        if (_useKeystream && keystream() != null) {
+            _rotorsStale = true;
+            return;
+        }
+        syncRotors();
+        setMovingState(odometer().advance(movingState(), n));
+    }
+
+    /** Return the packed state of my moving rotors' settings, as defined
+     *  by my odometer. */
+    long movingState() {
+        Odometer odometer = odometer();
+        int first = numRotors() - odometer.numRotors();
+        System.arraycopy(_settings, first, _moving, 0, _moving.length);
+        return odometer.pack(_moving);
+    }
+
+    /** Set my moving rotors to the settings packed in STATE, as defined
+     *  by my odometer. */
+    void setMovingState(long state) {
+        Odometer odometer = odometer();
+        int first = numRotors() - odometer.numRotors();
+        odometer.unpack(state, _moving);
+        System.arraycopy(_moving, 0, _settings, first, _moving.length);
+        _sandwichValid = false;
+        _state = state;
+    }
+
+    /** Move my rotors to the settings they would have after POSITION
+     *  keystrokes from the settings last given to setRotors, so that the
+     *  next keystroke converts the character at index POSITION of a
+     *  message begun there. */
+    void seek(long position) {
+        if (!_started) {
+            throw error("rotors have not been set");
+        }
+        restart();
+        advanceBy(position);
+    }
+
+    /** Store in ROW, starting at OFF, the conversion of each character
+     *  index at my current settings, without advancing. */
+    void substitution(int[] row, int off) {
+        if (!_sandwichValid) {
+            composeSandwich();
+        }
+        for (int c = 0; c < _sandwich.length; c += 1) {
+            row[off + c] = through(c);
+        }
+    }
 
+    /** Return the settings last given to setRotors, by slot, or null if
+     *  there are none.  Slot 0 (the reflector's) is always 0. */
+    int[] origin() {
+        return _started ? _start.clone() : null;
+    }
+
+    /** Return my keystream table, building it if needed, or null (also
+     *  turning off keystream mode) if it would be too large. */
+    private Keystream keystream() {
+        if (_keystream == null) {
+            _keystream = Keystream.build(this);
+            if (_keystream == null) {
+                useKeystream(false);
+            }
+        }
+        return _keystream;
+    }
+
+    /** If keystream mode has left my rotors behind my position, move
+     *  them to the settings for that position. */
+    private void syncRotors() {
+        if (_rotorsStale) {
+            _rotorsStale = false;
+            long position = _position;
+            restart();
+            setMovingState(odometer().advance(movingState(), position));
+            _position = position;
+        }
+    }
+
+    /** Return the odometer of my current moving rotors, creating it if
+     *  needed. */
+    Odometer odometer() {
+        if (_odometer == null) {
+            long key = movingKey();
+            _odometer = key < 0 ? null : _odometers.get(key);
+            if (_odometer == null) {
+                int first = numRotors() - numPawls();
+                Rotor[] moving = new Rotor[numPawls()];
+                for (int i = 0; i < moving.length; i += 1) {
+                    moving[i] = _machineRotors.get(first + i);
+                }
+                _odometer = new Odometer(moving);
+                if (key >= 0) {
+                    if (_odometers.size() >= MAX_CACHED) {
+                        _odometers.clear();
+                    }
+                    Odometer old = _odometers.putIfAbsent(key, _odometer);
+                    if (old != null) {
+                        _odometer = old;
+                    }
+                }
+            }
+        }
+        return _odometer;
+    }
+
+    /** Return a number identifying the rotors in my moving slots, or -1
+     *  if the number would overflow. */
+    private long movingKey() {
+        long key = 0;
+        long radix = _rotorById.length;
+        for (int i = numRotors() - numPawls(); i < numRotors(); i += 1) {
+            if (key > (Long.MAX_VALUE - _slotIds[i]) / radix) {
+                return -1;
+            }
+            key = key * radix + _slotIds[i];
+        }
+        return key;
+    }
+
+    /** Recompute _sandwich, the composed mapping through every rotor
+     *  left of the rightmost one, out to the reflector and back, at
+     *  their current settings. */
+    private void composeSandwich() {
+        composeSandwich(_machineRotors, _settings, _sandwich, 0);
+        _sandwichValid = true;
+    }
+
+    /** Store in DST, starting at OFF, the sandwich of the rotors ROTORS
+     *  (reflector first) at the settings SETTINGS, by slot: the mapping
+     *  through every rotor left of the rightmost, out to the reflector
+     *  and back. */
+    static void composeSandwich(List<Rotor> rotors, int[] settings,
+                                int[] dst, int off) {
+        int last = rotors.size() - 1;
+        int size = rotors.get(0).size();
+        for (int c = 0; c < size; c++) {
+            int saveState = c;
+            for (int f = last - 1; f >= 0; f--) {
+                saveState = rotors.get(f)
+                    .convertForward(saveState, settings[f]);
+            }
+            for (int b = 1; b < last; b++) {
+                saveState = rotors.get(b)
+                    .convertBackward(saveState, settings[b]);
+            }
+            dst[off + c] = saveState;
+        }
+    }
+
+    /** Fold the plugboard into per-setting entry and exit tables for the
+     *  rightmost rotor, when that rotor is compiled.  Otherwise, clear
+     *  them so that convert takes the general path. */
+    private void buildEndTables() {
+        _entry = _exit = null;
+        if (_fast == null || !_fast.compiled()) {
+            return;
+        }
+        int size = _sandwich.length;
+        int[] entry = _endTablesOwned ? _entry0 : new int[size * size];
+        int[] exit = _endTablesOwned ? _exit0 : new int[size * size];
+        for (int s = 0, row = 0; s < size; s += 1, row += size) {
+            for (int c = 0; c < size; c += 1) {
+                int in = _plugboard == null ? c : _plugboard.permute(c);
+                entry[row + c] = _fast.convertForward(in, s);
+                int out = _fast.convertBackward(c, s);
+                exit[row + c] =
+                    _plugboard == null ? out : _plugboard.invert(out);
+            }
+        }
+        _entry = _entry0 = entry;
+        _exit = _exit0 = exit;
+        _endTablesOwned = true;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        StringBuilder msgString = new StringBuilder(msg);
-        for (int i = 0; i < msg.length(); i++){
-            msgString.setCharAt(i, _alphabet.toChar(convert(msg.charAt(i))));
+        char[] buffer = msg.toCharArray();
+        convert(buffer, 0, buffer.length, buffer);
+        return new String(buffer);
+    }
+
+    /** Convert the LEN characters of SRC starting at OFF, storing the
+     *  results at the same positions of DST and updating the state of
+     *  the rotors accordingly.  SRC and DST may be the same array. */
+    void convert(char[] src, int off, int len, char[] dst) {
+        for (int i = off, end = off + len; i < end; i += 1) {
+            dst[i] = _alphabet.toChar(convert(index(src[i])));
+        }
+    }
+
+    /** Convert the LEN characters of SRC starting at OFF as for
+     *  convert(SRC, OFF, LEN, DST), but split into segments converted
+     *  concurrently on the common fork-join pool.  Each segment is
+     *  converted by its own copy of me, positioned at the segment's start
+     *  with advanceBy, and I am left positioned after the last
+     *  character, even if some segment fails.  Short inputs are
+     *  converted directly. */
+    void convertParallel(char[] src, int off, int len, char[] dst) {
+        int segments = Math.min(len / MIN_SEGMENT,
+                                4 * ForkJoinPool.getCommonPoolParallelism());
+        if (segments < 2) {
+            convert(src, off, len, dst);
+            return;
+        }
+        Machine[] workers = new Machine[segments];
+        int[] starts = new int[segments + 1];
+        for (int i = 0; i < segments; i += 1) {
+            starts[i] = off + (int) ((long) len * i / segments);
+        }
+        starts[segments] = off + len;
+        for (int i = 0; i < segments; i += 1) {
+            workers[i] = copy();
+            advanceBy(starts[i + 1] - starts[i]);
+        }
+        IntStream.range(0, segments).parallel().forEach(i ->
+            workers[i].convert(src, starts[i], starts[i + 1] - starts[i],
+                               dst));
+    }
+
+    /** Convert the characters remaining in SRC, appending the results to
+     *  DST and updating the state of the rotors accordingly.  Both
+     *  buffers' positions advance by the number of characters converted,
+     *  which is the smaller of their remaining counts. */
+    void convert(CharBuffer src, CharBuffer dst) {
+        int len = Math.min(src.remaining(), dst.remaining());
+        if (src.hasArray() && dst.hasArray() && !dst.isReadOnly()) {
+            char[] in = src.array(), out = dst.array();
+            int from = src.arrayOffset() + src.position();
+            int to = dst.arrayOffset() + dst.position();
+            for (int i = 0; i < len; i += 1) {
+                out[to + i] = _alphabet.toChar(convert(index(in[from + i])));
+            }
+            src.position(src.position() + len);
+            dst.position(dst.position() + len);
+        } else {
+            for (int i = 0; i < len; i += 1) {
+                dst.put(_alphabet.toChar(convert(index(src.get()))));
+            }
+        }
+    }
+
+    /** Convert the LEN bytes of SRC starting at OFF, storing the results
+     *  at the same positions of DST.  Over the byte alphabet, every byte
+     *  is a symbol; otherwise each byte must be an ASCII character of my
+     *  alphabet, which must consist of ASCII characters. */
+    void convert(byte[] src, int off, int len, byte[] dst) {
+        if (_alphabet.isBytes()) {
+            for (int i = off, end = off + len; i < end; i += 1) {
+                dst[i] = (byte) convert(src[i] & BYTE_MASK);
+            }
+            return;
+        }
+        if (!asciiAlphabet()) {
+            throw error("byte conversion requires an ASCII alphabet");
+        }
+        for (int i = off, end = off + len; i < end; i += 1) {
+            dst[i] = (byte) _alphabet.toChar(convert(index((char) src[i])));
+        }
+    }
+
+    /** Convert the bytes remaining in SRC as for convert(byte[], int, int,
+     *  byte[]), appending the results to DST.  Both buffers' positions
+     *  advance by the number of bytes converted, which is the smaller of
+     *  their remaining counts. */
+    void convert(ByteBuffer src, ByteBuffer dst) {
+        int len = Math.min(src.remaining(), dst.remaining());
+        if (src.hasArray() && dst.hasArray() && !dst.isReadOnly()
+            && src.array() == dst.array()
+            && src.arrayOffset() + src.position()
+               == dst.arrayOffset() + dst.position()) {
+            convert(src.array(), src.arrayOffset() + src.position(), len,
+                    dst.array());
+        } else {
+            if (_byteChunk == null) {
+                _byteChunk = new byte[BYTE_CHUNK];
+            }
+            byte[] chunk = _byteChunk;
+            for (int done = 0; done < len; done += chunk.length) {
+                int n = Math.min(chunk.length, len - done);
+                src.get(chunk, 0, n);
+                convert(chunk, 0, n, chunk);
+                dst.put(chunk, 0, n);
+            }
+            return;
         }
-        return msgString.toString();
+        src.position(src.position() + len);
+        dst.position(dst.position() + len);
     }
 
+    /** Return the index of CH in my alphabet, which must contain it. */
+    private int index(char ch) {
+        int result = _alphabet.toInt(ch);
+        if (result < 0) {
+            throw error("character '%c' not in alphabet", ch);
+        }
+        return result;
+    }
+
+    /** Return true iff every character of my alphabet is ASCII. */
+    private boolean asciiAlphabet() {
+        for (int i = 0; i < _alphabet.size(); i += 1) {
+            if (_alphabet.toChar(i) >= ASCII_LIMIT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Smallest segment, in characters, that convertParallel converts
+     *  on its own worker. */
+    static final int MIN_SEGMENT = 1 << 16;
+
+    /** One more than the largest ASCII character code. */
+    private static final int ASCII_LIMIT = 128;
+
+    /** Mask selecting the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Largest number of bytes convert(ByteBuffer, ByteBuffer) copies at
+     *  a time between buffers that do not share an array. */
+    private static final int BYTE_CHUNK = 1 << 16;
+
+    /** Largest number of plugboards or odometers I cache. */
+    private static final int MAX_CACHED = 1024;
+
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 
@@ -128,4 +850,88 @@ class Machine {
     private HashMap<String, Rotor> _allRotors;
     private Permutation _plugboard;
     private ArrayList<Rotor> _machineRotors;
+
+    /** My available rotors by ID, in order of name. */
+    private final Rotor[] _rotorById;
+
+    /** IDs of my available rotors by name. */
+    private final HashMap<String, Integer> _rotorIds;
+
+    /** The IDs of the rotors in my slots, or all -1 if none. */
+    private final int[] _slotIds;
+
+    /** Plugboards returned by plugboard(), by cycles. */
+    private final HashMap<String, Permutation> _plugboards = new HashMap<>();
+
+    /** Templates by setting line, shared with my copies. */
+    private final SettingCache _settingCache;
+
+    /** Odometers made for my moving rotors, by movingKey(), shared with
+     *  my copies. */
+    private final ConcurrentHashMap<Long, Odometer> _odometers;
+
+    /** Stepping mechanism of my moving rotors, or null if not yet
+     *  needed since they were inserted. */
+    private Odometer _odometer;
+
+    /** Packed state of my moving rotors' settings, as defined by my
+     *  odometer. */
+    private long _state;
+
+    /** The settings last given to setRotors, by slot. */
+    private final int[] _start;
+
+    /** True iff setRotors has been called. */
+    private boolean _started;
+
+    /** Number of keystrokes since the settings last given to setRotors. */
+    private long _position;
+
+    /** True iff keystream mode is on. */
+    private boolean _useKeystream;
+
+    /** Keystream table for my configuration, or null if not built. */
+    private Keystream _keystream;
+
+    /** True iff my rotors' settings lag behind _position because of
+     *  conversions made in keystream mode. */
+    private boolean _rotorsStale;
+
+    /** The settings of the rotors in my slots, by slot.  The rotors
+     *  themselves are shared and never moved by me. */
+    private final int[] _settings;
+
+    /** Settings of my moving rotors, leftmost first, as packed and
+     *  unpacked by my odometer. */
+    private final int[] _moving;
+
+    /** The rightmost (fastest) rotor in my slots. */
+    private Rotor _fast;
+
+    /** Composed mapping through all rotors left of _fast and back. */
+    private final int[] _sandwich;
+
+    /** True iff _sandwich reflects the current rotor settings. */
+    private boolean _sandwichValid;
+
+    /** Plugboard followed by _fast's forward conversion, by setting of
+     *  _fast: entry S * size + C.  Null unless _fast is compiled. */
+    private int[] _entry;
+
+    /** _fast's backward conversion followed by the inverse plugboard,
+     *  laid out as _entry. */
+    private int[] _exit;
+
+    /** The last end tables I allocated, kept for reuse by
+     *  buildEndTables. */
+    private int[] _entry0, _exit0;
+
+    /** True iff _entry0 and _exit0 are mine alone, and so may be
+     *  overwritten by buildEndTables. */
+    private boolean _endTablesOwned;
+
+    /** Scratch array through which convert(ByteBuffer, ByteBuffer)
+     *  copies between buffers that do not share an array, or null until
+     *  first needed. */
+    private byte[] _byteChunk;
 }
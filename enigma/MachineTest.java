@@ -0,0 +1,368 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Machine class.
+ *  @author
+ */
+public class MachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a 5-slot, 3-pawl naval machine with rotors ROTORS at
+     *  SETTING and plugboard CYCLES. */
+    private Machine naval(String setting, String cycles, String... rotors) {
+        Machine mach = new Machine(UPPER, 5, 3, navalRotors());
+        mach.insertRotors(rotors);
+        mach.setRotors(setting);
+        mach.setPlugboard(new Permutation(cycles, UPPER));
+        return mach;
+    }
+
+    /** Return the conversion of the upper-case letters in MSG by MACH,
+     *  one keystroke at a time. */
+    private String convertEach(Machine mach, String msg) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < msg.length(); i += 1) {
+            result.append(UPPER.toChar(mach.convert(UPPER.toInt(
+                msg.charAt(i)))));
+        }
+        return result.toString();
+    }
+
+    /** Return a machine over bytes with a reflector and three moving
+     *  rotors, whose middle rotor has notches at 00 and 01, and the
+     *  others at NOTCHES, set to SETTINGS. */
+    private static Machine byteMachine(String notches, int... settings) {
+        Alphabet bytes = Alphabet.bytes();
+        StringBuilder pairs = new StringBuilder();
+        for (int i = 0; i < 256; i += 2) {
+            pairs.append(String.format("(%02x%02x)", i, 255 - i));
+        }
+        HashMap<String, Rotor> rotors = new HashMap<>();
+        rotors.put("R", new Reflector("R", new Permutation(pairs.toString(),
+                                                           bytes)));
+        for (int r = 1; r <= 3; r += 1) {
+            StringBuilder wiring = new StringBuilder("(");
+            for (int i = 0; i < 256; i += 1) {
+                wiring.append(String.format("%02x",
+                                            (i * (64 * r + 3) + r) % 256));
+            }
+            rotors.put("M" + r, new MovingRotor("M" + r, new Permutation(
+                wiring.append(")").toString(), bytes),
+                r == 2 ? "\0\1" : notches));
+        }
+        Machine mach = new Machine(bytes, 4, 3, rotors);
+        mach.insertRotors(new String[] {"R", "M1", "M2", "M3"});
+        mach.setRotors(settings);
+        return mach;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkHiawatha() {
+        Machine mach = naval("AXLE", "(HQ) (EX) (IP) (TR) (BY)",
+                             "B", "Beta", "III", "IV", "I");
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     convertEach(mach, "FROMHISSHOULDERHIAWATHA"));
+    }
+
+    @Test
+    public void checkNoPlugboard() {
+        Machine mach = naval("AAAA", "", "B", "Beta", "I", "II", "III");
+        assertEquals("ILBDAAMTAZ", convertEach(mach, "HELLOWORLD"));
+    }
+
+    @Test
+    public void checkReciprocal() {
+        String msg = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG";
+        Machine mach = naval("ADUZ", "(AQ) (EP)",
+                             "C", "Gamma", "VI", "II", "III");
+        String cipher = convertEach(mach, msg);
+        mach.setRotors("ADUZ");
+        assertEquals(msg, convertEach(mach, cipher));
+    }
+
+    @Test
+    public void checkBulk() {
+        String msg = "FROMHISSHOULDERHIAWATHA";
+        String cipher = "QVPQSOKOILPUBKJZPISFXDW";
+        String plugs = "(HQ) (EX) (IP) (TR) (BY)";
+        Machine mach = naval("AXLE", plugs, "B", "Beta", "III", "IV", "I");
+        assertEquals(cipher, mach.convert(msg));
+
+        char[] chars = ("**" + msg).toCharArray();
+        mach.setRotors("AXLE");
+        mach.convert(chars, 2, msg.length(), chars);
+        assertEquals("**" + cipher, new String(chars));
+
+        CharBuffer out = CharBuffer.allocate(msg.length());
+        mach.setRotors("AXLE");
+        mach.convert(CharBuffer.wrap(msg), out);
+        assertEquals(cipher, new String(out.array()));
+
+        byte[] bytes = msg.getBytes(StandardCharsets.US_ASCII);
+        mach.setRotors("AXLE");
+        mach.convert(bytes, 0, bytes.length, bytes);
+        assertEquals(cipher, new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void checkSeek() {
+        String msg = "FROMHISSHOULDERHIAWATHA";
+        String cipher = "QVPQSOKOILPUBKJZPISFXDW";
+        String plugs = "(HQ) (EX) (IP) (TR) (BY)";
+        Machine mach = naval("AXLE", plugs, "B", "Beta", "III", "IV", "I");
+        for (int k = msg.length() - 1; k >= 0; k -= 1) {
+            mach.seek(k);
+            assertEquals(msg("seek", "position %d", k), cipher.substring(k),
+                         mach.convert(msg.substring(k)));
+        }
+
+        Machine stepped = naval("ADUZ", "", "C", "Gamma", "VI", "VII", "II");
+        Machine jumped = naval("ADUZ", "", "C", "Gamma", "VI", "VII", "II");
+        for (int k = 0; k < 20000; k += 1) {
+            stepped.convert(0);
+        }
+        jumped.advanceBy(20000);
+        assertEquals(stepped.convert(UPPER_STRING),
+                     jumped.convert(UPPER_STRING));
+    }
+
+    @Test
+    public void checkLongSeek() {
+        assertTrue(byteMachine("\0", 0, 0, 0).odometer().numStates()
+                   > Odometer.MAX_TABLE_STATES);
+        Machine stepped = byteMachine("\u00f0", 0xfe, 0xff, 0xee);
+        Machine jumped = byteMachine("\u00f0", 0xfe, 0xff, 0xee);
+        for (int k = 0; k < 200000; k += 1) {
+            stepped.convert(0);
+        }
+        jumped.advanceBy(200000);
+        for (int k = 0; k < 1000; k += 1) {
+            assertEquals(stepped.convert(k % 256), jumped.convert(k % 256));
+        }
+
+        long far = 1L << 40;
+        Machine once = byteMachine("\u00f0", 1, 2, 3);
+        Machine twice = byteMachine("\u00f0", 1, 2, 3);
+        Machine last = byteMachine("\u00f0", 1, 2, 3);
+        once.advanceBy(far);
+        twice.advanceBy(far / 2 + 12345);
+        twice.advanceBy(far / 2 - 12345);
+        last.advanceBy(far - 70000);
+        for (int k = 0; k < 70000; k += 1) {
+            last.convert(0);
+        }
+        for (int k = 0; k < 1000; k += 1) {
+            int c = once.convert(k % 256);
+            assertEquals(msg("seek", "twice, at %d", k),
+                         c, twice.convert(k % 256));
+            assertEquals(msg("seek", "then step, at %d", k),
+                         c, last.convert(k % 256));
+        }
+    }
+
+    @Test
+    public void checkConvertParallel() {
+        String plugs = "(AQ) (EP) (MN)";
+        char[] msg = new char[2 * Machine.MIN_SEGMENT + 12345];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = UPPER_STRING.charAt(i * 7 % 26);
+        }
+        Machine serial = naval("QRSV", plugs, "C", "Beta", "VI", "VIII",
+                               "VII");
+        Machine parallel = naval("QRSV", plugs, "C", "Beta", "VI", "VIII",
+                                 "VII");
+        char[] expected = new char[msg.length];
+        char[] actual = new char[msg.length];
+        serial.convert(msg, 0, msg.length, expected);
+        parallel.convertParallel(msg, 0, msg.length, actual);
+        assertArrayEquals(expected, actual);
+        assertEquals("left after the last character",
+                     serial.convert(UPPER_STRING),
+                     parallel.convert(UPPER_STRING));
+    }
+
+    @Test
+    public void checkKeystream() {
+        String msg = "FROMHISSHOULDERHIAWATHA";
+        String cipher = "QVPQSOKOILPUBKJZPISFXDW";
+        String plugs = "(HQ) (EX) (IP) (TR) (BY)";
+        Machine mach = naval("AXLE", plugs, "B", "Beta", "III", "IV", "I");
+        mach.useKeystream(true);
+        assertEquals(cipher, mach.convert(msg));
+        mach.seek(5);
+        assertEquals(cipher.substring(5), mach.convert(msg.substring(5)));
+
+        Machine plain = naval("AXLE", plugs, "B", "Beta", "III", "IV", "I");
+        mach.seek(0);
+        for (int k = 0; k < 17000; k += 1) {
+            assertEquals(plain.convert(k % 26), mach.convert(k % 26));
+        }
+        mach.useKeystream(false);
+        assertEquals(plain.convert(UPPER_STRING), mach.convert(UPPER_STRING));
+    }
+
+    @Test
+    public void checkSharedRotors() {
+        HashMap<String, Rotor> rotors = navalRotors();
+        Machine first = new Machine(UPPER, 5, 3, rotors);
+        Machine second = new Machine(UPPER, 5, 3, rotors);
+        first.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        second.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        first.setRotors("AXLE");
+        second.setRotors("AXLE");
+        first.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)",
+                                           UPPER));
+        second.setPlugboard(new Permutation("", UPPER));
+        Machine alone = naval("AXLE", "", "B", "Beta", "III", "IV", "I");
+        String msg = "FROMHISSHOULDERHIAWATHA";
+        StringBuilder cipher = new StringBuilder();
+        for (int i = 0; i < msg.length(); i += 1) {
+            first.convert(0);
+            cipher.append(second.convert(msg.substring(i, i + 1)));
+        }
+        assertEquals(alone.convert(msg), cipher.toString());
+        assertEquals(0, rotors.get("I").setting());
+    }
+
+    @Test
+    public void checkCopy() {
+        String plugs = "(HQ) (EX) (IP) (TR) (BY)";
+        Machine mach = naval("AXLE", plugs, "B", "Beta", "III", "IV", "I");
+        Machine copy = mach.copy();
+        assertSame(mach.odometer(), copy.odometer());
+        mach.setPlugboard(new Permutation("(AZ)", UPPER));
+        Machine fresh = naval("AXLE", plugs, "B", "Beta", "III", "IV", "I");
+        assertEquals("copy keeps its end tables",
+                     fresh.convert(UPPER_STRING), copy.convert(UPPER_STRING));
+
+        mach = naval("ADUZ", "(AQ)", "C", "Gamma", "VI", "VII", "II");
+        fresh = naval("ADUZ", "(AQ)", "C", "Gamma", "VI", "VII", "II");
+        mach.useKeystream(true);
+        fresh.convert(mach.convert(UPPER_STRING));
+        copy = mach.copy();
+        copy.useKeystream(false);
+        String rest = fresh.convert(UPPER_STRING);
+        assertEquals(rest, copy.convert(UPPER_STRING));
+        assertEquals(rest, mach.convert(UPPER_STRING));
+    }
+
+    @Test
+    public void checkReconfigure() {
+        Machine mach = new Machine(UPPER, 5, 3, navalRotors());
+        String[][] keys = {
+            {"B", "Beta", "III", "IV", "I", "AXLE", "(HQ)(EX)(IP)(TR)(BY)"},
+            {"C", "Gamma", "VI", "VII", "II", "ADUZ", ""},
+            {"C", "Gamma", "VI", "VII", "II", "ADUZ", "(AQ)(EP)"},
+            {"B", "Beta", "III", "IV", "I", "AXLE", "(HQ)(EX)(IP)(TR)(BY)"},
+        };
+        for (String[] key : keys) {
+            int[] ids = new int[5];
+            for (int i = 0; i < ids.length; i += 1) {
+                ids[i] = mach.rotorId(key[i]);
+            }
+            int[] positions = new int[4];
+            for (int i = 0; i < positions.length; i += 1) {
+                positions[i] = UPPER.toInt(key[5].charAt(i));
+            }
+            mach.reconfigure(ids, positions, mach.plugboard(key[6]));
+            Machine fresh = naval(key[5], key[6], key[0], key[1], key[2],
+                                  key[3], key[4]);
+            assertEquals(fresh.convert(UPPER_STRING + UPPER_STRING),
+                         mach.convert(UPPER_STRING + UPPER_STRING));
+        }
+        assertEquals(-1, mach.rotorId("IX"));
+        assertTrue(mach.plugboard("(AQ)(EP)") == mach.plugboard("(AQ)(EP)"));
+    }
+
+    @Test
+    public void checkTemplates() {
+        String[][] keys = {
+            {"AXLE", "(HQ)(EX)(IP)(TR)(BY)", "B", "Beta", "III", "IV", "I"},
+            {"ADUZ", "", "C", "Gamma", "VI", "VII", "II"},
+            {"ADUZ", "(AQ)(EP)", "C", "Gamma", "VI", "VII", "II"},
+            {"QRST", "(AQ)(EP)", "C", "Gamma", "VI", "VII", "II"},
+        };
+        Machine base = naval("AAAA", "", "B", "Beta", "I", "II", "III");
+        Machine.Template[] templates = new Machine.Template[keys.length];
+        for (int i = 0; i < keys.length; i += 1) {
+            Machine mach = base.copy();
+            mach.insertRotors(Arrays.copyOfRange(keys[i], 2, 7));
+            mach.setRotors(keys[i][0]);
+            mach.setPlugboard(new Permutation(keys[i][1], UPPER));
+            mach.convert(UPPER_STRING);
+            templates[i] = mach.template();
+            mach.setPlugboard(new Permutation("(YZ)", UPPER));
+            mach.convert(UPPER_STRING);
+        }
+        Machine user = base.copy();
+        for (int k : new int[] {0, 1, 2, 3, 0, 3, 3, 1}) {
+            user.configure(templates[k]);
+            Machine fresh = naval(keys[k][0], keys[k][1], keys[k][2],
+                                  keys[k][3], keys[k][4], keys[k][5],
+                                  keys[k][6]);
+            assertEquals(fresh.convert(UPPER_STRING + UPPER_STRING),
+                         user.convert(UPPER_STRING + UPPER_STRING));
+        }
+    }
+
+    @Test
+    public void checkBytes() {
+        Alphabet bytes = Alphabet.bytes();
+        StringBuilder wiring = new StringBuilder("(");
+        StringBuilder pairs = new StringBuilder();
+        for (int i = 0; i < 256; i += 1) {
+            wiring.append(String.format("%02x", (i * 167 + 13) % 256));
+            if (i % 2 == 0) {
+                pairs.append(String.format("(%02x%02x)", i, 255 - i));
+            }
+        }
+        HashMap<String, Rotor> rotors = new HashMap<>();
+        rotors.put("R", new Reflector("R", new Permutation(pairs.toString(),
+                                                           bytes)));
+        rotors.put("M", new MovingRotor("M", new Permutation(
+            wiring.append(")").toString(), bytes), "\0"));
+        Machine mach = new Machine(bytes, 2, 1, rotors);
+        mach.insertRotors(new String[] {"R", "M"});
+        mach.setRotors(new int[] {0xfe});
+        mach.setPlugboard(mach.plugboard("(00 ff)"));
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i += 1) {
+            data[i] = (byte) (i * 31);
+        }
+        byte[] cipher = new byte[data.length];
+        mach.convert(data, 0, data.length, cipher);
+        mach.seek(0);
+        ByteBuffer plain = ByteBuffer.allocate(data.length);
+        mach.convert(ByteBuffer.wrap(cipher), plain);
+        assertEquals(ByteBuffer.wrap(data), plain.flip());
+    }
+
+    @Test
+    public void checkRotorOrders() {
+        Machine mach = new Machine(UPPER, 5, 3, navalRotors());
+        assertEquals(2 * 2 * 8 * 7 * 6, mach.rotorOrders().size());
+        for (int[] order : mach.rotorOrders()) {
+            mach.reconfigure(order, new int[4], mach.plugboard(""));
+        }
+    }
+
+}
@@ -1,10 +1,23 @@
 package enigma;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 import java.util.*;
+import java.util.stream.IntStream;
 
 import static enigma.EnigmaException.*;
 
@@ -21,7 +34,13 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.  Alternatively, ARGS may be "compile-config"
+     *  followed by the names of a configuration file and of an image file
+     *  to which to write that configuration in binary form.  Such an
+     *  image may be given in place of the configuration file, and is then
+     *  loaded without parsing.  Finally, ARGS may be "serve" followed by
+     *  an address and a configuration file, in which case a Server
+     *  converts messages for clients at that address until killed. */
     public static void main(String... args) {
         try {
             new Main(args).process();
@@ -32,24 +51,97 @@ public final class Main {
         System.exit(1);
     }
 
-    /** Check ARGS and open the necessary files (see comment on main). */
+    /** Check ARGS and open the necessary files (see comment on main).
+     *  ARGS may begin with options: --mmap requires that the configuration,
+     *  input and output files all be named, and processes both message
+     *  files through memory mappings; --parallel processes independent
+     *  messages concurrently; --stats prints Metrics to the standard
+     *  error periodically and at the end, and publishes them as an
+     *  MBean. */
     Main(String[] args) {
+        int first = 0;
+        boolean mmap = false;
+        for (; first < args.length && args[first].startsWith("--");
+             first += 1) {
+            if (args[first].equals("--mmap")) {
+                mmap = true;
+            } else if (args[first].equals("--parallel")) {
+                _parallel = true;
+            } else if (args[first].equals("--stats")) {
+                _stats = true;
+            } else {
+                throw error("unknown option %s", args[first]);
+            }
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
+        if (args.length > 0 && args[0].equals("compile-config")) {
+            if (args.length != 3 || first > 0) {
+                throw error("usage: compile-config CONFIG IMAGE");
+            }
+            _config = getInput(args[1]);
+            _configName = args[1];
+            _imageOutput = args[2];
+            return;
+        }
+        if (args.length > 0 && args[0].equals("serve")) {
+            if (args.length != 3 || first > 0) {
+                throw error("usage: serve ADDRESS CONFIG");
+            }
+            _serveAddress = Server.address(args[1]);
+            openConfig(args[2]);
+            return;
+        }
+        _mapImage = mmap;
+        if (mmap) {
+            if (args.length != 3) {
+                throw error("--mmap requires configuration, input and "
+                            + "output files");
+            }
+            if (_parallel) {
+                throw error("--parallel cannot be combined with --mmap");
+            }
+            openConfig(args[0]);
+            _mappedInput = openMapped(args[1], StandardOpenOption.READ);
+            _mappedOutput = openMapped(args[2], StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE,
+                                       StandardOpenOption.CREATE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+            return;
+        }
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        openConfig(args[0]);
 
+        ReadableByteChannel input;
         if (args.length > 1) {
-            _input = getInput(args[1]);
+            input = getInputChannel(args[1]);
         } else {
-            _input = new Scanner(System.in);
+            input = Channels.newChannel(System.in);
         }
+        _inputChannel = input;
+        _input = new LineReader(input, Charset.defaultCharset());
 
+        WritableByteChannel output;
         if (args.length > 2) {
-            _output = getOutput(args[2]);
+            output = getOutputChannel(args[2]);
+        } else {
+            output = Channels.newChannel(System.out);
+        }
+        _outputChannel = output;
+        _output = new LineWriter(output, Charset.defaultCharset());
+    }
+
+    /** Prepare to read the configuration in the file named NAME, which
+     *  may be a text configuration or an image made by compile-config. */
+    private void openConfig(String name) {
+        _configName = name;
+        Path file = Paths.get(name);
+        if (ConfigImage.isImage(file)) {
+            _image = file;
         } else {
-            _output = System.out;
+            _config = getInput(name);
         }
     }
 
@@ -62,10 +154,28 @@ public final class Main {
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a channel reading from the file named NAME. */
+    private ReadableByteChannel getInputChannel(String name) {
+        try {
+            return FileChannel.open(Paths.get(name));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a channel on the file named NAME, opened with OPTIONS. */
+    private FileChannel openMapped(String name, OpenOption... options) {
         try {
-            return new PrintStream(new File(name));
+            return FileChannel.open(Paths.get(name), options);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a channel writing to the file named NAME. */
+    private WritableByteChannel getOutputChannel(String name) {
+        try {
+            return new FileOutputStream(name).getChannel();
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -75,62 +185,447 @@ public final class Main {
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
     private void process() {
-        Machine m = readConfig();
-
-        while (_input.hasNext()) {
-            String[] rotors = new String[m.numRotors()];
-            String beginning = _input.next();
-            if (beginning.equals("*")) {
-                rotors[0] = _input.next();
+        if (_stats || _serveAddress != null) {
+            Metrics.register();
+        }
+        if (_stats) {
+            Metrics.dumpEvery(STATS_PERIOD, System.err);
+        }
+        Machine m = loadConfig();
+        if (_imageOutput != null) {
+            ConfigImage.write(m, _imageOutput);
+            return;
+        }
+        try {
+            if (_serveAddress != null) {
+                new Server(m, _serveAddress).serve();
+                return;
+            }
+            if (_alphabet.isBytes()) {
+                if (_mappedInput != null) {
+                    processMappedBytes(m);
+                } else {
+                    processBytes(m, _inputChannel, _outputChannel);
+                }
+            } else if (_mappedInput != null) {
+                processMapped(m);
+            } else if (_parallel) {
+                processParallel(m);
             } else {
-                rotors[0] = beginning.substring(1);
+                processStream(m);
             }
-            for (int i = 1; i < m.numRotors(); i++) {
-                rotors[i] = _input.next();
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        } finally {
+            _timer.end();
+            if (_stats) {
+                Metrics.get().dump(System.err);
             }
-            m.insertRotors(rotors);
-            String setting = _input.next();
-            setUp(m, setting);
-            String rem = _input.nextLine();
-            Scanner scan = new Scanner(rem);
-            String cycles = "";
-            while (scan.hasNext("(\\s)*(\\(|\\))+(\\s)")) {
-                cycles += scan.next();
-            }
-            m.setPlugboard(new Permutation(cycles, _alphabet));
-            while (_input.hasNextLine() && _input.hasNext("(?<=^|\n)\\*.*")) {
-                String nextLine = _input.nextLine().replaceAll("[ \t]", "");
-                printMessageLine(m.convert(nextLine));
-            }
-
-            if (_input.hasNextLine()) {
-                _input.useDelimiter("[ \t*]+");
-                while (_input.hasNext("((\r\n)+|(\n)+)")) {
-                    String useless = _input.next();
-                    useless = useless.replaceAll("\r", "");
-                    for (int i = 0; i < useless.length(); i += 1) {
-                        _output.print("\r\n");
+        }
+    }
+
+    /** Return the machine described by the configuration, recording the
+     *  time taken to load it in Metrics and as a Flight Recorder
+     *  event. */
+    private Machine loadConfig() {
+        Events.ConfigLoad event = new Events.ConfigLoad();
+        event.begin();
+        long start = System.nanoTime();
+        Machine m;
+        if (_image != null) {
+            m = ConfigImage.read(_image, _mapImage);
+            _alphabet = m.alphabet();
+        } else {
+            m = readConfig();
+        }
+        Metrics.configLoaded(System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.source = _configName;
+            event.image = _image != null;
+            event.rotors = m.availableRotors().length;
+            event.alphabetSize = _alphabet.size();
+            event.commit();
+        }
+        return m;
+    }
+
+    /** Apply M to the messages in _input, sending the results to
+     *  _output. */
+    private void processStream(Machine m) throws IOException {
+        try {
+            char[] message = new char[0];
+            while (_input.next()) {
+                char[] line = _input.line();
+                int length = _input.length();
+                if (length > 0 && line[0] == '*') {
+                    _timer.end();
+                    setUp(m, items(line, 1, length));
+                    _configured = true;
+                    _timer.begin();
+                    continue;
+                }
+                if (!_configured) {
+                    if (isBlank(line, length)) {
+                        continue;
+                    }
+                    throw error("input does not start with a setting");
+                }
+                if (message.length < length) {
+                    message = new char[length];
+                }
+                int n = 0;
+                for (int i = 0; i < length; i += 1) {
+                    char c = line[i];
+                    if (c != ' ' && c != '\t') {
+                        message[n++] = c;
                     }
                 }
-                _input.useDelimiter("\\s+");
+                m.convert(message, 0, n, message);
+                _timer.add(n);
+                printMessageLine(message, n);
+            }
+        } finally {
+            _output.flush();
+        }
+    }
+
+    /** Apply M, configured over the byte alphabet, to the binary input
+     *  IN, writing the converted bytes to OUT.  IN begins with a setting
+     *  line in ASCII ending in a newline, followed by the message, which
+     *  is every byte to the end of IN.  Bytes pass through a single
+     *  buffer with no character decoding. */
+    private void processBytes(Machine m, ReadableByteChannel in,
+                              WritableByteChannel out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+        int eol = -1;
+        while (eol < 0 && buffer.hasRemaining() && in.read(buffer) >= 0) {
+            eol = lineEnd(buffer, buffer.position());
+        }
+        setUpBinary(m, buffer, eol);
+        _timer.begin();
+        buffer.flip().position(eol + 1);
+        while (true) {
+            int start = buffer.position();
+            _timer.add(buffer.remaining());
+            m.convert(buffer, buffer.duplicate());
+            buffer.position(start);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+            if (in.read(buffer) < 0) {
+                return;
             }
+            buffer.flip();
         }
     }
 
+    /** Apply M, configured over the byte alphabet, to the binary input in
+     *  the memory-mapped file _mappedInput, as for processBytes, storing
+     *  the converted bytes in the memory-mapped file _mappedOutput.  The
+     *  output is exactly as long as the message, so both files are mapped
+     *  in windows of the same length and bytes go directly from one to
+     *  the other, never through the heap. */
+    private void processMappedBytes(Machine m) throws IOException {
+        try {
+            long size = _mappedInput.size();
+            MappedByteBuffer head =
+                _mappedInput.map(FileChannel.MapMode.READ_ONLY, 0,
+                                 Math.min(size, BYTE_BUFFER_SIZE));
+            int eol = lineEnd(head, head.limit());
+            setUpBinary(m, head, eol);
+            _timer.begin();
+            long start = eol + 1;
+            long length = size - start;
+            for (long done = 0; done < length; done += MAP_WINDOW) {
+                int len = (int) Math.min(MAP_WINDOW, length - done);
+                MappedByteBuffer src =
+                    _mappedInput.map(FileChannel.MapMode.READ_ONLY,
+                                     start + done, len);
+                MappedByteBuffer dst =
+                    _mappedOutput.map(FileChannel.MapMode.READ_WRITE,
+                                      done, len);
+                for (int i = 0; i < len; i += 1) {
+                    dst.put(i, (byte) m.convert(src.get(i) & BYTE_MASK));
+                }
+                _timer.add(len);
+            }
+        } finally {
+            _mappedInput.close();
+            _mappedOutput.close();
+        }
+    }
+
+    /** Return the index of the first newline among the first LIMIT bytes
+     *  of BUFFER, or -1 if there is none. */
+    private static int lineEnd(ByteBuffer buffer, int limit) {
+        for (int i = 0; i < limit; i += 1) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Set up M from the ASCII setting line that begins a binary input,
+     *  occupying the first EOL bytes of BUFFER and followed by a newline.
+     *  EOL is -1 if no newline was found. */
+    private void setUpBinary(Machine m, ByteBuffer buffer, int eol) {
+        if (eol < 0 || buffer.get(0) != '*') {
+            throw error("binary input does not start with a setting line");
+        }
+        char[] line = new char[eol];
+        for (int i = 0; i < eol; i += 1) {
+            line[i] = (char) (buffer.get(i) & BYTE_MASK);
+        }
+        int end = eol > 0 && line[eol - 1] == '\r' ? eol - 1 : eol;
+        setUp(m, items(line, 1, end));
+    }
+
+    /** Apply M to the messages in _input, sending the results to _output,
+     *  converting independent messages concurrently.  Messages are read
+     *  in batches of about BATCH_CHARS characters; each batch is split at
+     *  setting lines and its messages converted on the common fork-join
+     *  pool, each worker thread using its own copy of M.  Results are
+     *  written in input order. */
+    private void processParallel(Machine m) throws IOException {
+        Machine template = m.copy();
+        ThreadLocal<Machine> machines =
+            ThreadLocal.withInitial(template::copy);
+        ArrayList<String> batch = new ArrayList<>();
+        StringBuilder message = null;
+        int batchChars = 0;
+        try {
+            while (_input.next()) {
+                char[] line = _input.line();
+                int length = _input.length();
+                if (length > 0 && line[0] == '*') {
+                    if (message != null) {
+                        batch.add(message.toString());
+                        batchChars += message.length();
+                        if (batchChars >= BATCH_CHARS) {
+                            convertBatch(machines, batch);
+                            batchChars = 0;
+                        }
+                    }
+                    message = new StringBuilder();
+                } else if (message == null) {
+                    if (isBlank(line, length)) {
+                        continue;
+                    }
+                    throw error("input does not start with a setting");
+                }
+                message.append(line, 0, length).append('\n');
+            }
+            if (message != null) {
+                batch.add(message.toString());
+            }
+            convertBatch(machines, batch);
+        } finally {
+            _output.flush();
+        }
+    }
+
+    /** Convert the messages in BATCH concurrently, each with the machine
+     *  MACHINES supplies to its worker thread, write the results in
+     *  order, and clear BATCH.  Each message is its setting line followed
+     *  by its message lines, each terminated by a newline.  If a message
+     *  fails, the lines converted before the error are written, as in
+     *  sequential mode, and the error is rethrown. */
+    private void convertBatch(ThreadLocal<Machine> machines,
+                              ArrayList<String> batch) throws IOException {
+        int n = batch.size();
+        String[] results = new String[n];
+        EnigmaException[] errors = new EnigmaException[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            StringBuilder result = new StringBuilder(batch.get(i).length());
+            try {
+                convertMessage(machines.get(), batch.get(i), result);
+            } catch (EnigmaException excp) {
+                errors[i] = excp;
+            }
+            results[i] = result.toString();
+        });
+        for (int i = 0; i < n; i += 1) {
+            _output.write(results[i]);
+            if (errors[i] != null) {
+                throw errors[i];
+            }
+        }
+        batch.clear();
+    }
+
+    /** Append to RESULT the output for MESSAGE, a setting line followed
+     *  by message lines, each terminated by a newline, as converted by
+     *  M.  Lines are appended as they are converted, so that if one
+     *  fails, RESULT holds those before it.  A line long enough to split
+     *  is converted in segments by Machine.convertParallel, whose tasks
+     *  join the fork-join pool already running the other messages. */
+    private void convertMessage(Machine m, String message,
+                                StringBuilder result) {
+        char[] chars = message.toCharArray();
+        int eol = message.indexOf('\n');
+        setUp(m, items(chars, 1, eol));
+        Metrics.MessageTimer timer = new Metrics.MessageTimer();
+        timer.begin();
+        for (int start = eol + 1; start < chars.length; start = eol + 1) {
+            eol = message.indexOf('\n', start);
+            int n = 0;
+            for (int i = start; i < eol; i += 1) {
+                if (chars[i] != ' ' && chars[i] != '\t') {
+                    chars[start + n++] = chars[i];
+                }
+            }
+            m.convertParallel(chars, start, n, chars);
+            timer.add(n);
+            for (int i = 0; i < n; i += 1) {
+                if (i > 0 && i % GROUP_SIZE == 0) {
+                    result.append(' ');
+                }
+                result.append(chars[start + i]);
+            }
+            result.append('\n');
+        }
+        timer.end();
+    }
+
+    /** Apply M to the messages in the memory-mapped file _mappedInput,
+     *  storing the results in the memory-mapped file _mappedOutput.
+     *  The input is mapped in windows that always start at a line
+     *  boundary, so neither file is copied into the heap. */
+    private void processMapped(Machine m) throws IOException {
+        for (int i = 0; i < _alphabet.size(); i += 1) {
+            if (_alphabet.toChar(i) >= ASCII_LIMIT) {
+                throw error("--mmap requires an ASCII alphabet");
+            }
+        }
+        MappedWriter out = new MappedWriter(_mappedOutput, MAP_WINDOW);
+        long size = _mappedInput.size();
+        long start = 0;
+        int window = MAP_WINDOW;
+        try {
+            while (start < size) {
+                int len = (int) Math.min(window, size - start);
+                boolean last = start + len == size;
+                MappedByteBuffer buf =
+                    _mappedInput.map(FileChannel.MapMode.READ_ONLY,
+                                     start, len);
+                int lineStart = 0;
+                while (lineStart < len) {
+                    int eol = lineStart;
+                    while (eol < len && buf.get(eol) != '\n') {
+                        eol += 1;
+                    }
+                    if (eol == len && !last) {
+                        break;
+                    }
+                    int lineEnd = eol;
+                    if (lineEnd > lineStart && buf.get(lineEnd - 1) == '\r') {
+                        lineEnd -= 1;
+                    }
+                    processMappedLine(m, buf, lineStart, lineEnd, out);
+                    lineStart = eol + 1;
+                }
+                if (lineStart == 0 && !last) {
+                    if (window == Integer.MAX_VALUE) {
+                        throw error("input line too long");
+                    }
+                    window = (int) Math.min(2L * window, Integer.MAX_VALUE);
+                }
+                start += Math.min(lineStart, len);
+            }
+        } finally {
+            out.close();
+            _mappedInput.close();
+        }
+    }
+
+    /** Process the line occupying bytes START up to END of BUF using M,
+     *  writing any resulting message line to OUT. */
+    private void processMappedLine(Machine m, ByteBuffer buf, int start,
+                                   int end, MappedWriter out)
+        throws IOException {
+        if (end > start && buf.get(start) == '*') {
+            char[] line = new char[end - start];
+            for (int i = 0; i < line.length; i += 1) {
+                line[i] = (char) (buf.get(start + i) & BYTE_MASK);
+            }
+            _timer.end();
+            setUp(m, items(line, 1, line.length));
+            _configured = true;
+            _timer.begin();
+            return;
+        }
+        int n = 0;
+        for (int i = start; i < end; i += 1) {
+            char c = (char) (buf.get(i) & BYTE_MASK);
+            if (c == ' ' || c == '\t') {
+                continue;
+            }
+            if (!_configured) {
+                throw error("input does not start with a setting");
+            }
+            int index = _alphabet.toInt(c);
+            if (index < 0) {
+                throw error("character '%c' not in alphabet", c);
+            }
+            if (n > 0 && n % GROUP_SIZE == 0) {
+                out.write((byte) ' ');
+            }
+            out.write((byte) _alphabet.toChar(m.convert(index)));
+            n += 1;
+        }
+        _timer.add(n);
+        if (_configured) {
+            out.write((byte) '\n');
+        }
+    }
+
+    /** Return true iff the first LENGTH characters of LINE are blanks
+     *  or tabs. */
+    private static boolean isBlank(char[] line, int length) {
+        for (int i = 0; i < length; i += 1) {
+            if (line[i] != ' ' && line[i] != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /** Return an Enigma machine configured from the contents of configuration
      *  file _config. */
     private Machine readConfig() {
         try {
             String configAlpha = _config.next();
+            if (configAlpha.equals(BYTES_MARKER)) {
+                _alphabet = Alphabet.bytes();
+            } else if (configAlpha.matches(".*[*()].*")) {
+                throw error("bad character in alphabet %s", configAlpha);
+            } else {
+                _alphabet = new Alphabet(configAlpha);
+            }
+            if (!_config.hasNextInt()) {
+                throw error("configuration file missing rotor counts");
+            }
             int numRotors = _config.nextInt();
+            if (!_config.hasNextInt()) {
+                throw error("configuration file missing pawl count");
+            }
             int numPawls = _config.nextInt();
+            if (numRotors <= numPawls || numPawls < 0) {
+                throw error("bad rotor/pawl counts: %d %d",
+                            numRotors, numPawls);
+            }
             HashMap<String, Rotor> rotorMap = new HashMap<String, Rotor>();
             while (_config.hasNext()) {
                 Rotor currRotor = readRotor();
+                if (rotorMap.containsKey(currRotor.name())) {
+                    throw error("duplicate rotor %s", currRotor.name());
+                }
                 rotorMap.put(currRotor.name(), currRotor);
             }
-            _alphabet = new Alphabet();
-            return new Machine(_alphabet, 2, 1, null);
+            return new Machine(_alphabet, numRotors, numPawls, rotorMap);
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
         }
@@ -138,75 +633,242 @@ public final class Main {
 
     /** Return a rotor, reading its description from _config. */
     private Rotor readRotor() {
-        Rotor rotorResult;
         try {
-            Permutation placeholderperm = new Permutation("", _alphabet);
-            rotorResult = new Rotor("", placeholderperm);
             String name = _config.next();
+            if (name.matches(".*[()].*")) {
+                throw error("bad rotor name %s", name);
+            }
             String type = _config.next();
             String notches = type.substring(1);
             String cycles = "";
-            while (_config.hasNext("(\\s)*(\\(|\\))+(\\s)*")) {
+            while (_config.hasNext("\\(.*")) {
                 cycles += _config.next();
             }
             Permutation newPerm = new Permutation(cycles, _alphabet);
             char rotorType = type.charAt(0);
-            if ((rotorType != 'M') | (rotorType != 'N') | (rotorType != 'R')) {
-                throw new EnigmaException("Type of rotor doesn't exist");
-            }
             if (rotorType == 'M') {
                 if (notches.length() == 0) {
                     throw new EnigmaException("No notches specified");
                 }
-                rotorResult = new MovingRotor(name, newPerm, notches);
-                return rotorResult;
-            }
-            if (rotorType == 'F') {
-                if (notches.length() > 0) {
-                    throw new EnigmaException
-                            ("Fixed Rotors do not take notches");
+                StringBuilder notchChars = new StringBuilder();
+                for (int posn : indices(_alphabet, notches, "notch")) {
+                    notchChars.append(_alphabet.toChar(posn));
                 }
-                rotorResult = new FixedRotor(name, newPerm);
-                return rotorResult;
+                return new MovingRotor(name, newPerm, notchChars.toString());
+            }
+            if (notches.length() > 0) {
+                throw new EnigmaException
+                        ("Fixed Rotors do not take notches");
+            }
+            if (rotorType == 'N') {
+                return new FixedRotor(name, newPerm);
             }
             if (rotorType == 'R') {
-                if (notches.length() > 0) {
-                    throw new EnigmaException
-                            ("Fixed Rotors do not take notches");
-                }
-                rotorResult = new Reflector(name, newPerm);
-                return rotorResult;
+                return new Reflector(name, newPerm);
             }
+            throw new EnigmaException("Type of rotor doesn't exist");
         } catch (NoSuchElementException excp) {
             throw error("bad rotor description");
         }
-        return rotorResult;
+    }
+
+    /** Return the blank- or tab-separated items in LINE from index START
+     *  up to index END. */
+    static String[] items(char[] line, int start, int end) {
+        ArrayList<String> result = new ArrayList<>();
+        int i = start;
+        while (true) {
+            while (i < end && (line[i] == ' ' || line[i] == '\t')) {
+                i += 1;
+            }
+            if (i == end) {
+                return result.toArray(new String[result.size()]);
+            }
+            int first = i;
+            while (i < end && line[i] != ' ' && line[i] != '\t') {
+                i += 1;
+            }
+            result.add(new String(line, first, i - first));
+        }
+    }
 
+    /** Set M according to the specification given on a setting line,
+     *  which must have the format specified in the assignment.  ITEMS
+     *  holds the items of the setting line following its '*'.  A line
+     *  seen before is found in M's setting cache, and costs only a
+     *  lookup and a copy of the cached settings.  Otherwise, rotor names
+     *  are resolved to IDs and the plugboard comes from M's cache, so
+     *  that M only changes what differs from its last setting. */
+    static void setUp(Machine M, String[] items) {
+        Events.MachineSetup event = new Events.MachineSetup();
+        event.begin();
+        String key = SettingCache.key(items);
+        Machine.Template template = M.settingCache().get(key);
+        if (template != null) {
+            M.configure(template);
+        } else {
+            parseSetting(M, items);
+            M.settingCache().put(key, M.template());
+        }
+        Metrics.settingLine();
+        event.end();
+        if (event.shouldCommit()) {
+            event.setting = key;
+            event.commit();
+        }
     }
 
-    /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
-        M.setRotors(settings);
+    /** Set M according to the setting line whose items following its '*'
+     *  are ITEMS, checking each item. */
+    private static void parseSetting(Machine M, String[] items) {
+        int numRotors = M.numRotors();
+        if (items.length < numRotors + 1) {
+            throw error("too few items on setting line");
+        }
+        int[] rotors = new int[numRotors];
+        for (int i = 0; i < numRotors; i += 1) {
+            rotors[i] = M.rotorId(items[i]);
+            if (rotors[i] < 0) {
+                throw error("rotor %s not available", items[i]);
+            }
+            for (int j = 0; j < i; j += 1) {
+                if (rotors[i] == rotors[j]) {
+                    throw error("rotor %s repeated", items[i]);
+                }
+            }
+        }
+        String setting = items[numRotors];
+        int[] positions = indices(M.alphabet(), setting, "setting");
+        if (positions.length != numRotors - 1) {
+            throw error("wrong number of rotor settings: %s", setting);
+        }
+        StringBuilder cycles = new StringBuilder();
+        for (int i = numRotors + 1; i < items.length; i += 1) {
+            if (!items[i].startsWith("(")) {
+                throw error("bad plugboard item %s", items[i]);
+            }
+            cycles.append(items[i]);
+        }
+        M.reconfigure(rotors, positions, M.plugboard(cycles.toString()));
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        for (int i = 0; i < msg.length(); i++) {
-            _output.print(msg.charAt(i));
+    /** Return the indices in ALPHA of the symbols in TEXT, which names a
+     *  WHAT.  Over the byte alphabet, each symbol is two hexadecimal
+     *  digits; otherwise it is a character of ALPHA. */
+    private static int[] indices(Alphabet alpha, String text, String what) {
+        if (alpha.isBytes()) {
+            if (text.length() % 2 != 0) {
+                throw error("bad hexadecimal %s %s", what, text);
+            }
+            int[] result = new int[text.length() / 2];
+            for (int i = 0; i < result.length; i += 1) {
+                result[i] = Alphabet.hexIndex(text, 2 * i);
+                if (result[i] < 0) {
+                    throw error("bad hexadecimal %s %s", what, text);
+                }
+            }
+            return result;
         }
+        int[] result = new int[text.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = alpha.toInt(text.charAt(i));
+            if (result[i] < 0) {
+                throw error("%s '%c' not in alphabet", what, text.charAt(i));
+            }
+        }
+        return result;
     }
 
+    /** Print the first LENGTH characters of MSG in groups of five (except
+     *  that the last group may have fewer letters). */
+    private void printMessageLine(char[] msg, int length)
+        throws IOException {
+        for (int i = 0; i < length; i++) {
+            if (i > 0 && i % GROUP_SIZE == 0) {
+                _output.write(' ');
+            }
+            _output.write(msg[i]);
+        }
+        _output.newLine();
+    }
+
+    /** Number of characters in each printed group. */
+    private static final int GROUP_SIZE = 5;
+
+    /** Size of each memory-mapped window in --mmap mode. */
+    private static final int MAP_WINDOW = 1 << 28;
+
+    /** One more than the largest ASCII character code. */
+    private static final int ASCII_LIMIT = 128;
+
+    /** Seconds between the summaries printed by --stats. */
+    private static final long STATS_PERIOD = 10;
+
+    /** Approximate number of input characters in each batch of messages
+     *  converted concurrently in --parallel mode. */
+    private static final int BATCH_CHARS = 1 << 22;
+
+    /** Mask selecting the unsigned value of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Size of the buffer through which binary input passes. */
+    private static final int BYTE_BUFFER_SIZE = 1 << 16;
+
+    /** Configuration item that stands in place of the alphabet to select
+     *  the byte alphabet. */
+    private static final String BYTES_MARKER = "*BYTES";
+
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
     /** Source of input messages. */
-    private Scanner _input;
+    private LineReader _input;
 
-    /** Source of machine configuration. */
+    /** Source of machine configuration, unless it is an image. */
     private Scanner _config;
 
+    /** Configuration image file, or null if the configuration is
+     *  text. */
+    private Path _image;
+
+    /** True iff a configuration image is to be memory-mapped. */
+    private boolean _mapImage;
+
+    /** Name of the image file to write in compile-config mode, or
+     *  null. */
+    private String _imageOutput;
+
+    /** Name of the configuration file. */
+    private String _configName;
+
+    /** True iff --stats was given. */
+    private boolean _stats;
+
+    /** Timing of the current message when messages are processed in
+     *  sequence. */
+    private final Metrics.MessageTimer _timer = new Metrics.MessageTimer();
+
+    /** Address at which to serve clients in serve mode, or null. */
+    private SocketAddress _serveAddress;
+
     /** File for encoded/decoded messages. */
-    private PrintStream _output;
+    private LineWriter _output;
+
+    /** Channel underlying _input. */
+    private ReadableByteChannel _inputChannel;
+
+    /** Channel underlying _output. */
+    private WritableByteChannel _outputChannel;
+
+    /** Input file in --mmap mode, otherwise null. */
+    private FileChannel _mappedInput;
+
+    /** Output file in --mmap mode, otherwise null. */
+    private FileChannel _mappedOutput;
+
+    /** True iff messages are to be converted concurrently. */
+    private boolean _parallel;
+
+    /** True once a setting line has been processed. */
+    private boolean _configured;
 }
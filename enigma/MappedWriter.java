@@ -0,0 +1,120 @@
+package enigma;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** A byte writer that stores directly into successive memory-mapped
+ *  windows of an output file, which grows as needed and is truncated
+ *  to the bytes actually written when closed.  Windows start at
+ *  FIRST_WINDOW bytes and double up to a maximum, so that the file never
+ *  extends far beyond the bytes written.  Each window is unmapped as
+ *  soon as it is full, where the platform allows, rather than when it
+ *  is garbage collected: some systems, Windows among them, will not
+ *  truncate a file that is still mapped.
+ *  @author Izaac Ruiz
+ */
+class MappedWriter {
+
+    /** A writer to OUT, which must be open for reading and writing, that
+     *  maps at most WINDOW bytes at a time. */
+    MappedWriter(FileChannel out, int window) {
+        _out = out;
+        _maxWindow = window;
+        _window = Math.min(FIRST_WINDOW, window);
+    }
+
+    /** Write byte B. */
+    void write(byte b) throws IOException {
+        if (_buffer == null || !_buffer.hasRemaining()) {
+            remap();
+        }
+        _buffer.put(b);
+    }
+
+    /** Unmap the current window, trim the output file to the bytes
+     *  written and close it. */
+    void close() throws IOException {
+        try {
+            release();
+            _out.truncate(_base);
+        } finally {
+            _out.close();
+        }
+    }
+
+    /** Map the window of the output following the bytes written so
+     *  far, releasing the current one. */
+    private void remap() throws IOException {
+        if (_buffer != null) {
+            release();
+            _window = (int) Math.min(2L * _window, _maxWindow);
+        }
+        _buffer = _out.map(FileChannel.MapMode.READ_WRITE, _base, _window);
+    }
+
+    /** Count the bytes written to the current window, if any, and unmap
+     *  it. */
+    private void release() {
+        if (_buffer == null) {
+            return;
+        }
+        _base += _buffer.position();
+        MappedByteBuffer buffer = _buffer;
+        _buffer = null;
+        if (UNMAP != null) {
+            try {
+                UNMAP.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException excp) {
+                /* Left to the garbage collector. */
+            }
+        }
+    }
+
+    /** Size of the first window. */
+    static final int FIRST_WINDOW = 1 << 12;
+
+    /** sun.misc.Unsafe.invokeCleaner, which unmaps a mapped buffer at
+     *  once, or null if it is not available. */
+    private static final Method UNMAP;
+
+    /** The instance of sun.misc.Unsafe on which to call UNMAP. */
+    private static final Object UNSAFE;
+
+    static {
+        Method unmap;
+        Object unsafe;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field instance = type.getDeclaredField("theUnsafe");
+            instance.setAccessible(true);
+            unsafe = instance.get(null);
+            unmap = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException excp) {
+            unsafe = null;
+            unmap = null;
+        }
+        UNMAP = unmap;
+        UNSAFE = unsafe;
+    }
+
+    /** The output file. */
+    private final FileChannel _out;
+
+    /** Largest size of a mapped window. */
+    private final int _maxWindow;
+
+    /** Size of the next window mapped. */
+    private int _window;
+
+    /** File position of the start of _buffer, or of the end of the
+     *  bytes written when there is no window. */
+    private long _base;
+
+    /** The current window, or null before the first write or once
+     *  released. */
+    private MappedByteBuffer _buffer;
+}
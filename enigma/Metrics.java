@@ -0,0 +1,305 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import static enigma.EnigmaException.*;
+
+/** Counters of the work done by this program: characters, messages and
+ *  setting lines processed, setting cache hits and misses,
+ *  configurations loaded, and a histogram of the time taken per
+ *  message.  The counters are striped, so that
+ *  threads converting concurrently do not contend for them, and are
+ *  updated once per message or setting line rather than per character.
+ *  They may be read through the MetricsMBean interface, registered with
+ *  the platform MBean server by register(), or printed by dump().
+ *  @author Izaac Ruiz
+ */
+final class Metrics implements MetricsMBean {
+
+    /** Not instantiable except as INSTANCE. */
+    private Metrics() {
+    }
+
+    /** Return the metrics of this program. */
+    static Metrics get() {
+        return INSTANCE;
+    }
+
+    /** Record that a configuration was loaded in NANOS nanoseconds. */
+    static void configLoaded(long nanos) {
+        INSTANCE._configLoads.increment();
+        INSTANCE._configNanos.add(nanos);
+    }
+
+    /** Record that a setting line was processed. */
+    static void settingLine() {
+        INSTANCE._settingLines.increment();
+    }
+
+    /** Record a lookup in a setting cache, which was a hit iff HIT. */
+    static void settingCache(boolean hit) {
+        (hit ? INSTANCE._cacheHits : INSTANCE._cacheMisses).increment();
+    }
+
+    /** Record that a message of CHARACTERS characters was converted in
+     *  NANOS nanoseconds. */
+    static void message(long characters, long nanos) {
+        INSTANCE._messages.increment();
+        INSTANCE._characters.add(characters);
+        INSTANCE._messageNanos.add(nanos);
+        INSTANCE._latency[bucket(nanos)].increment();
+    }
+
+    /** Register INSTANCE with the platform MBean server, if it is not
+     *  already. */
+    static synchronized void register() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer()
+                .isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(INSTANCE, MetricsMBean.class), name);
+            }
+        } catch (JMException excp) {
+            throw error("could not register metrics: %s",
+                        excp.getMessage());
+        }
+    }
+
+    /** Print a summary of INSTANCE to OUT every PERIOD seconds, from a
+     *  daemon thread, until the program exits. */
+    static void dumpEvery(long period, PrintStream out) {
+        ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread result = new Thread(task, "enigma-metrics");
+                result.setDaemon(true);
+                return result;
+            });
+        timer.scheduleAtFixedRate(() -> INSTANCE.dump(out),
+                                  period, period, TimeUnit.SECONDS);
+    }
+
+    /** Print a one-line summary of my counts to OUT. */
+    void dump(PrintStream out) {
+        out.printf("enigma: %d messages, %d characters (%.0f/s), "
+                   + "%d setting lines (%d cached), "
+                   + "%d configurations in %.1f ms, "
+                   + "message time mean %.1f us, median <= %.0f us, "
+                   + "p99 <= %.0f us%n",
+                   getMessages(), getCharacters(), getCharactersPerSecond(),
+                   getSettingLines(), getSettingCacheHits(),
+                   getConfigLoads(),
+                   getConfigLoadMillis(), getMeanMessageMicros(),
+                   getMedianMessageMicros(), getP99MessageMicros());
+    }
+
+    @Override
+    public long getCharacters() {
+        return _characters.sum();
+    }
+
+    @Override
+    public long getMessages() {
+        return _messages.sum();
+    }
+
+    @Override
+    public long getSettingLines() {
+        return _settingLines.sum();
+    }
+
+    @Override
+    public long getSettingCacheHits() {
+        return _cacheHits.sum();
+    }
+
+    @Override
+    public long getSettingCacheMisses() {
+        return _cacheMisses.sum();
+    }
+
+    @Override
+    public long getConfigLoads() {
+        return _configLoads.sum();
+    }
+
+    @Override
+    public double getConfigLoadMillis() {
+        return _configNanos.sum() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getCharactersPerSecond() {
+        double seconds = (System.nanoTime() - _since) / NANOS_PER_SECOND;
+        return seconds > 0 ? getCharacters() / seconds : 0;
+    }
+
+    @Override
+    public double getMeanMessageMicros() {
+        long messages = getMessages();
+        return messages == 0
+            ? 0 : _messageNanos.sum() / NANOS_PER_MICRO / messages;
+    }
+
+    @Override
+    public double getMedianMessageMicros() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public double getP99MessageMicros() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public long[] getMessageLatencyHistogram() {
+        long[] result = new long[BUCKETS];
+        for (int k = 0; k < BUCKETS; k += 1) {
+            result[k] = _latency[k].sum();
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        _characters.reset();
+        _messages.reset();
+        _settingLines.reset();
+        _cacheHits.reset();
+        _cacheMisses.reset();
+        _configLoads.reset();
+        _configNanos.reset();
+        _messageNanos.reset();
+        for (LongAdder count : _latency) {
+            count.reset();
+        }
+        _since = System.nanoTime();
+    }
+
+    /** Return the upper bound, in microseconds, of the histogram bucket
+     *  holding the fraction P of the messages. */
+    private double percentile(double p) {
+        long[] histogram = getMessageLatencyHistogram();
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        long seen = 0;
+        for (int k = 0; k < BUCKETS; k += 1) {
+            seen += histogram[k];
+            if (seen > 0 && seen >= p * total) {
+                return Math.scalb(1.0, k) / NANOS_PER_MICRO;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the histogram bucket for a time of NANOS nanoseconds. */
+    private static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /** The timing of one message at a time, for code that processes
+     *  messages in sequence. */
+    static class MessageTimer {
+        /** Start timing a message, first finishing any in progress. */
+        void begin() {
+            end();
+            _event = new Events.Message();
+            _event.begin();
+            _start = System.nanoTime();
+            _characters = 0;
+        }
+
+        /** Count N more characters of the current message. */
+        void add(long n) {
+            _characters += n;
+        }
+
+        /** Finish timing the current message, if any. */
+        void end() {
+            if (_event == null) {
+                return;
+            }
+            message(_characters, System.nanoTime() - _start);
+            _event.end();
+            if (_event.shouldCommit()) {
+                _event.characters = _characters;
+                _event.commit();
+            }
+            _event = null;
+        }
+
+        /** Event for the current message, or null if there is none. */
+        private Events.Message _event;
+
+        /** Time at which the current message began, in nanoseconds. */
+        private long _start;
+
+        /** Characters in the current message so far. */
+        private long _characters;
+    }
+
+    /** Name under which I am registered. */
+    static final String OBJECT_NAME = "enigma:type=Metrics";
+
+    /** Number of latency histogram buckets. */
+    private static final int BUCKETS = Long.SIZE + 1;
+
+    /** Nanoseconds per microsecond. */
+    private static final double NANOS_PER_MICRO = 1e3;
+
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** Nanoseconds per second. */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /** The metrics of this program. */
+    private static final Metrics INSTANCE = new Metrics();
+
+    /** Characters converted. */
+    private final LongAdder _characters = new LongAdder();
+
+    /** Messages converted. */
+    private final LongAdder _messages = new LongAdder();
+
+    /** Setting lines processed. */
+    private final LongAdder _settingLines = new LongAdder();
+
+    /** Setting cache lookups that found a template. */
+    private final LongAdder _cacheHits = new LongAdder();
+
+    /** Setting cache lookups that found none. */
+    private final LongAdder _cacheMisses = new LongAdder();
+
+    /** Configurations loaded. */
+    private final LongAdder _configLoads = new LongAdder();
+
+    /** Total time spent loading configurations, in nanoseconds. */
+    private final LongAdder _configNanos = new LongAdder();
+
+    /** Total time spent converting messages, in nanoseconds. */
+    private final LongAdder _messageNanos = new LongAdder();
+
+    /** Message latency histogram: _latency[K] counts messages that took
+     *  from 2**(K-1) to 2**K - 1 nanoseconds. */
+    private final LongAdder[] _latency = new LongAdder[BUCKETS];
+
+    {
+        for (int k = 0; k < BUCKETS; k += 1) {
+            _latency[k] = new LongAdder();
+        }
+    }
+
+    /** Time from which throughput is measured, in nanoseconds. */
+    private volatile long _since = System.nanoTime();
+}
@@ -0,0 +1,54 @@
+package enigma;
+
+/** The management interface of Metrics, under the name
+ *  enigma:type=Metrics.  All counts are since the program started or
+ *  since the last call to reset().
+ *  @author Izaac Ruiz
+ */
+public interface MetricsMBean {
+
+    /** Return the number of characters converted. */
+    long getCharacters();
+
+    /** Return the number of messages converted. */
+    long getMessages();
+
+    /** Return the number of setting lines processed. */
+    long getSettingLines();
+
+    /** Return the number of setting lines whose machine configuration
+     *  was found in a setting cache. */
+    long getSettingCacheHits();
+
+    /** Return the number of setting lines whose machine configuration
+     *  was not found in a setting cache. */
+    long getSettingCacheMisses();
+
+    /** Return the number of configurations loaded. */
+    long getConfigLoads();
+
+    /** Return the total time spent loading configurations, in
+     *  milliseconds. */
+    double getConfigLoadMillis();
+
+    /** Return the mean number of characters converted per second. */
+    double getCharactersPerSecond();
+
+    /** Return the mean time taken per message, in microseconds. */
+    double getMeanMessageMicros();
+
+    /** Return an upper bound on the median time taken per message, in
+     *  microseconds. */
+    double getMedianMessageMicros();
+
+    /** Return an upper bound on the 99th percentile of the time taken
+     *  per message, in microseconds. */
+    double getP99MessageMicros();
+
+    /** Return the message latency histogram: entry K is the number of
+     *  messages that took from 2**(K-1) to 2**K - 1 nanoseconds. */
+    long[] getMessageLatencyHistogram();
+
+    /** Set all counts to zero. */
+    void reset();
+}
@@ -0,0 +1,69 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** The suite of all JUnit tests for the Metrics class.  Other tests may
+ *  update the same counters, so these check only differences.
+ *  @author
+ */
+public class MetricsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    @Test
+    public void checkCounts() {
+        Metrics metrics = Metrics.get();
+        long messages = metrics.getMessages();
+        long characters = metrics.getCharacters();
+        long settings = metrics.getSettingLines();
+        long[] histogram = metrics.getMessageLatencyHistogram();
+        Metrics.message(100, 1000);
+        Metrics.message(50, 1);
+        Metrics.settingLine();
+        assertEquals(messages + 2, metrics.getMessages());
+        assertEquals(characters + 150, metrics.getCharacters());
+        assertEquals(settings + 1, metrics.getSettingLines());
+        long[] after = metrics.getMessageLatencyHistogram();
+        assertEquals("1000 ns is in [512, 1023]",
+                     histogram[10] + 1, after[10]);
+        assertEquals(histogram[1] + 1, after[1]);
+    }
+
+    @Test
+    public void checkTimer() {
+        Metrics metrics = Metrics.get();
+        long messages = metrics.getMessages();
+        long characters = metrics.getCharacters();
+        Metrics.MessageTimer timer = new Metrics.MessageTimer();
+        timer.end();
+        timer.begin();
+        timer.add(7);
+        timer.begin();
+        timer.add(3);
+        timer.add(4);
+        timer.end();
+        timer.end();
+        assertEquals(messages + 2, metrics.getMessages());
+        assertEquals(characters + 14, metrics.getCharacters());
+    }
+
+    @Test
+    public void checkMBean() throws Exception {
+        Metrics.register();
+        Metrics.register();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+        Metrics.settingLine();
+        assertEquals(Metrics.get().getSettingLines(),
+                     server.getAttribute(name, "SettingLines"));
+    }
+}
@@ -14,27 +14,29 @@ class MovingRotor extends Rotor {
      */
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
-        this._name = name;
-        this._notches = notches.toCharArray();
-        this._setting = 0;
-        this.perm = perm;
+        this._notchAt = new boolean[perm.alphabet().size()];
+        for (char notch : notches.toCharArray()) {
+            int posn = perm.alphabet().toInt(notch);
+            if (posn >= 0) {
+                _notchAt[posn] = true;
+            }
+        }
 
     }
 
     @Override
     boolean atNotch() {
-        for (Character el: this._notches) {
-            if (el.equals(perm.alphabet().toChar(this.setting()))) {
-                return true;
-            }
-        }
-        return false;
+        return notchAt(setting());
+    }
 
+    @Override
+    boolean notchAt(int posn) {
+        return _notchAt[posn];
     }
 
     @Override
     void advance() {
-        set((_setting + 1) % alphabet().size());
+        set((setting() + 1) % size());
     }
 
     @Override
@@ -42,8 +44,6 @@ class MovingRotor extends Rotor {
         return true;
     }
 
-    private char[] _notches;
-    private int _setting;
-    private Permutation perm;
-    private String _name;
+    /** _notchAt[P] is true iff I have a notch at setting P. */
+    private final boolean[] _notchAt;
 }
@@ -71,4 +71,16 @@ public class MovingRotorTest {
         checkRotor("Rotor I set", UPPER_STRING, NAVALZ_MAP.get("I"));
     }
 
+    @Test
+    public void checkCompiledRotor() {
+        setRotor("I", NAVALA, "");
+        rotor.compile();
+        assertTrue(rotor.compiled());
+        checkRotor("Rotor I compiled (A)", UPPER_STRING, NAVALA_MAP.get("I"));
+        rotor.advance();
+        checkRotor("Rotor I compiled (B)", UPPER_STRING, NAVALB_MAP.get("I"));
+        rotor.set(25);
+        checkRotor("Rotor I compiled (Z)", UPPER_STRING, NAVALZ_MAP.get("I"));
+    }
+
 }
@@ -0,0 +1,398 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** The stepping mechanism of the moving rotors of a machine, considered
+ *  apart from their wiring.  The settings of the moving rotors are packed
+ *  into a single state number in mixed radix, the rightmost (fastest)
+ *  rotor's setting being the least significant digit.  Once enough steps
+ *  have been taken to pay for it, an Odometer precomputes the successor
+ *  of every state and the notches showing in it, so that a keystroke's
+ *  stepping is a single table load.  Besides single steps, an Odometer
+ *  can compute the state after any number of steps:
+ *  when the state space is small enough, it records the cycles of the
+ *  stepping function as they are discovered, after which a jump of any
+ *  length costs a few steps into a cycle plus one table lookup.  Larger
+ *  state spaces are crossed in hops from one move of the slower rotors
+ *  to the next, and a long jump is reduced modulo the period of the
+ *  hops once they are found to repeat.  An
+ *  Odometer may be shared by machines in different threads: its tables
+ *  are published once built, and its cycle records are updated under
+ *  its lock.
+ *  @author Izaac Ruiz
+ */
+class Odometer {
+
+    /** An odometer for the moving rotors ROTORS, leftmost first, where
+     *  ROTORS[0] is preceded by a non-moving rotor or the reflector. */
+    Odometer(Rotor[] rotors) {
+        int k = rotors.length;
+        _sizes = new int[k];
+        _weights = new long[k];
+        _rotates = new boolean[k];
+        _notches = new boolean[k][];
+        long weight = 1;
+        for (int i = k - 1; i >= 0; i -= 1) {
+            Rotor rotor = rotors[i];
+            _sizes[i] = rotor.size();
+            _weights[i] = weight;
+            weight *= rotor.size();
+            _rotates[i] = rotor.rotates();
+            _notches[i] = new boolean[rotor.size()];
+            for (int p = 0; p < rotor.size(); p += 1) {
+                _notches[i][p] = rotor.notchAt(p);
+            }
+        }
+        _numStates = weight;
+        int last = k - 1;
+        if (k > 0) {
+            int size = _sizes[last];
+            _toNotch = new int[size];
+            int next = -1;
+            for (int p = 2 * size - 1; p >= 0; p -= 1) {
+                if (p < size) {
+                    _toNotch[p] = next < 0 ? size : next - p;
+                }
+                if (_notches[last][p % size]) {
+                    next = p;
+                }
+            }
+        } else {
+            _toNotch = null;
+        }
+    }
+
+    /** Return the number of moving rotors. */
+    int numRotors() {
+        return _sizes.length;
+    }
+
+    /** Return the number of distinct states. */
+    long numStates() {
+        return _numStates;
+    }
+
+    /** Return the state corresponding to SETTINGS, the settings of my
+     *  rotors, leftmost first. */
+    long pack(int[] settings) {
+        long state = 0;
+        for (int i = 0; i < _sizes.length; i += 1) {
+            state += settings[i] * _weights[i];
+        }
+        return state;
+    }
+
+    /** Store the rotor settings corresponding to STATE in SETTINGS,
+     *  leftmost first. */
+    void unpack(long state, int[] settings) {
+        for (int i = 0; i < _sizes.length; i += 1) {
+            settings[i] = (int) (state / _weights[i] % _sizes[i]);
+        }
+    }
+
+    /** Return the state following STATE after one keystroke, using the
+     *  successor table once it has been built. */
+    long next(long state) {
+        Tables tables = _tables;
+        if (tables != null) {
+            return tables._successor[(int) state];
+        }
+        _steps += 1;
+        if (_steps > _numStates / TABLE_COST && _numStates <= MAX_TABLE_STATES
+            && _sizes.length < Integer.SIZE) {
+            return buildTables()._successor[(int) state];
+        }
+        return step(state);
+    }
+
+    /** Return true iff some rotor other than the rightmost moves on the
+     *  keystroke made in STATE, that is, iff any rotor but the leftmost
+     *  is at a notch. */
+    boolean slowMoves(long state) {
+        Tables tables = _tables;
+        if (tables != null) {
+            return (tables._notchMask[(int) state] & tables._slowBits) != 0;
+        }
+        for (int i = 1; i < _sizes.length; i += 1) {
+            if (_notches[i][digit(state, i)]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the setting of the rightmost rotor in STATE.  Requires
+     *  numRotors() > 0. */
+    int fastSetting(long state) {
+        return (int) (state % _sizes[_sizes.length - 1]);
+    }
+
+    /** Build my successor and notch tables, publish them in _tables and
+     *  return them. */
+    private Tables buildTables() {
+        int n = (int) _numStates;
+        int[] successor = new int[n];
+        int[] notchMask = new int[n];
+        for (int s = 0; s < n; s += 1) {
+            successor[s] = (int) step(s);
+            for (int i = 0; i < _sizes.length; i += 1) {
+                if (_notches[i][digit(s, i)]) {
+                    notchMask[s] |= 1 << i;
+                }
+            }
+        }
+        Tables result = new Tables(successor, notchMask,
+                                   ((1 << _sizes.length) - 1) & ~1);
+        _tables = result;
+        return result;
+    }
+
+    /** The successor and notch tables of an odometer, which never change
+     *  once built. */
+    private static final class Tables {
+        /** Tables with successors SUCCESSOR, notch masks NOTCHMASK and
+         *  slow-rotor mask SLOWBITS. */
+        Tables(int[] successor, int[] notchMask, int slowBits) {
+            _successor = successor;
+            _notchMask = notchMask;
+            _slowBits = slowBits;
+        }
+
+        /** Successor of each state. */
+        private final int[] _successor;
+
+        /** Bit I of _notchMask[S] is set iff rotor I is at a notch in
+         *  state S. */
+        private final int[] _notchMask;
+
+        /** Mask of the bits in _notchMask for all rotors but the
+         *  leftmost. */
+        private final int _slowBits;
+    }
+
+    /** Return the state following STATE after one keystroke.  A rotor
+     *  advances if it is the rightmost one, if the rotor to its right is
+     *  at a notch, or if it is itself at a notch and the rotor to its
+     *  left moves (the double step). */
+    long step(long state) {
+        long next = state;
+        int last = _sizes.length - 1;
+        for (int i = 0; i <= last; i += 1) {
+            if (!_rotates[i]) {
+                continue;
+            }
+            int posn = digit(state, i);
+            if (i == last || _notches[i + 1][digit(state, i + 1)]
+                || (i > 0 && _notches[i][posn])) {
+                next += posn + 1 == _sizes[i]
+                    ? -posn * _weights[i] : _weights[i];
+            }
+        }
+        return next;
+    }
+
+    /** Return the state after N >= 0 keystrokes starting from STATE. */
+    long advance(long state, long n) {
+        if (n == 0 || _sizes.length == 0) {
+            return state;
+        }
+        if (_numStates > MAX_TABLE_STATES) {
+            return simulate(state, n);
+        }
+        return advanceOnCycles((int) state, n);
+    }
+
+    /** Return the state after N > 0 keystrokes starting from S, using
+     *  the recorded cycles.  Requires numStates() <= MAX_TABLE_STATES. */
+    private synchronized long advanceOnCycles(int s, long n) {
+        locate(s);
+        while (n > 0 && _cycleId[s] < 0) {
+            s = (int) step(s);
+            n -= 1;
+        }
+        int[] cycle = _cycles.get(_cycleId[s]);
+        return cycle[(int) ((_cyclePos[s] + n) % cycle.length)];
+    }
+
+    /** Return true iff STATE recurs under stepping, that is, lies on a
+     *  cycle.  Requires numStates() <= MAX_TABLE_STATES. */
+    synchronized boolean onCycle(long state) {
+        locate((int) state);
+        return _cycleId[(int) state] >= 0;
+    }
+
+    /** Return the states of the cycle through STATE, starting with STATE,
+     *  or null if STATE is not on a cycle.  Requires numStates() <=
+     *  MAX_TABLE_STATES. */
+    synchronized int[] cycleFrom(long state) {
+        if (!onCycle(state)) {
+            return null;
+        }
+        int[] cycle = _cycles.get(_cycleId[(int) state]);
+        int[] result = new int[cycle.length];
+        int pos = _cyclePos[(int) state];
+        System.arraycopy(cycle, pos, result, 0, cycle.length - pos);
+        System.arraycopy(cycle, 0, result, cycle.length - pos, pos);
+        return result;
+    }
+
+    /** Make sure that the cycle eventually reached from STATE has been
+     *  recorded in _cycles, _cycleId and _cyclePos.  Called only with my
+     *  lock held. */
+    private void locate(int state) {
+        if (_cycleId == null) {
+            _cycleId = new int[(int) _numStates];
+            _cyclePos = new int[(int) _numStates];
+            _visit = new int[(int) _numStates];
+            Arrays.fill(_cycleId, -1);
+        }
+        _walks += 1;
+        int s = state;
+        while (_cycleId[s] < 0 && _visit[s] != _walks) {
+            _visit[s] = _walks;
+            s = (int) step(s);
+        }
+        if (_cycleId[s] >= 0) {
+            return;
+        }
+        int length = 1;
+        for (int t = (int) step(s); t != s; t = (int) step(t)) {
+            length += 1;
+        }
+        int[] cycle = new int[length];
+        int id = _cycles.size();
+        for (int k = 0, t = s; k < length; k += 1, t = (int) step(t)) {
+            cycle[k] = t;
+            _cycleId[t] = id;
+            _cyclePos[t] = k;
+        }
+        _cycles.add(cycle);
+    }
+
+    /** Return the state after N >= 0 keystrokes from STATE.  The state
+     *  moves in hops (see hop()), each costing constant time.  Since
+     *  there are finitely many states, the hops eventually repeat; their
+     *  period is found by Brent's method as they are taken, after which
+     *  N is reduced modulo the number of keystrokes in a period.  So the
+     *  cost is bounded by the number of hops before the hops first
+     *  repeat, however large N is. */
+    private long simulate(long state, long n) {
+        long mark = state;
+        long power = 1, hops = 0, keys = 0;
+        boolean reduced = false;
+        while (n > 0) {
+            long length = hopLength(state);
+            if (length > n) {
+                return turnFast(state, n);
+            }
+            state = length == 1 ? step(state) : turnFast(state, length);
+            n -= length;
+            if (!reduced) {
+                hops += 1;
+                keys += length;
+                if (state == mark) {
+                    n %= keys;
+                    reduced = true;
+                } else if (hops == power) {
+                    mark = state;
+                    power *= 2;
+                    hops = keys = 0;
+                }
+            }
+        }
+        return state;
+    }
+
+    /** Return the number of keystrokes in the hop from STATE: the whole
+     *  stretch before the rightmost rotor next reaches a notch, when no
+     *  other rotor can move until then, and otherwise the single
+     *  keystroke that moves them. */
+    private long hopLength(long state) {
+        int last = _sizes.length - 1;
+        int fast = digit(state, last);
+        if (!_rotates[last] || _notches[last][fast]
+            || pendingDoubleStep(state)) {
+            return 1;
+        }
+        return _toNotch[fast];
+    }
+
+    /** Return STATE with the rightmost rotor turned N places and the
+     *  others unchanged. */
+    private long turnFast(long state, long n) {
+        int last = _sizes.length - 1;
+        int posn = digit(state, last);
+        return state + ((posn + n) % _sizes[last] - posn) * _weights[last];
+    }
+
+    /** Return true iff some rotor other than the leftmost and rightmost
+     *  is at a notch, so that it or the rotor to its left may move on the
+     *  next keystroke regardless of the rightmost rotor. */
+    private boolean pendingDoubleStep(long state) {
+        for (int i = 1; i < _sizes.length - 1; i += 1) {
+            if (_notches[i][digit(state, i)]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the setting of rotor I in STATE. */
+    private int digit(long state, int i) {
+        return (int) (state / _weights[i] % _sizes[i]);
+    }
+
+    /** The successor table is built once the number of steps taken
+     *  exceeds the number of states divided by TABLE_COST. */
+    private static final int TABLE_COST = 4;
+
+    /** Largest number of states for which cycles are recorded and the
+     *  successor table is built. */
+    static final long MAX_TABLE_STATES = 1 << 21;
+
+    /** Alphabet sizes of my rotors, leftmost first. */
+    private final int[] _sizes;
+
+    /** Place values of my rotors' settings in a state. */
+    private final long[] _weights;
+
+    /** _rotates[I] is true iff rotor I can move. */
+    private final boolean[] _rotates;
+
+    /** _notches[I][P] is true iff rotor I has a notch at setting P. */
+    private final boolean[][] _notches;
+
+    /** _toNotch[P] is the number of places the rightmost rotor turns
+     *  from setting P to its next notch, or its size if it has none.
+     *  Null if I have no rotors. */
+    private final int[] _toNotch;
+
+    /** Number of distinct states. */
+    private final long _numStates;
+
+    /** My successor and notch tables, or null if not yet built.  Threads
+     *  that find it null at once may each build the same tables; the
+     *  last to finish publishes them. */
+    private volatile Tables _tables;
+
+    /** Number of steps taken by next() without the successor table.
+     *  Updated without synchronization, since it only decides when to
+     *  build the tables. */
+    private long _steps;
+
+    /** Recorded cycles of the stepping function, as lists of states. */
+    private final ArrayList<int[]> _cycles = new ArrayList<>();
+
+    /** Index in _cycles of the cycle containing each state, or -1. */
+    private int[] _cycleId;
+
+    /** Position of each recorded cycle state within its cycle. */
+    private int[] _cyclePos;
+
+    /** Number of the last walk in locate() that visited each state. */
+    private int[] _visit;
+
+    /** Number of walks made by locate(). */
+    private int _walks;
+}
@@ -1,8 +1,7 @@
 package enigma;
 
-
-import java.util.HashMap;
-
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static enigma.EnigmaException.*;
 
@@ -17,39 +16,122 @@ class Permutation {
      * form "(cccc) (cc) ..." where the c's are characters in ALPHABET, which
      * is interpreted as a permutation in cycle notation.  Characters in the
      * alphabet that are not included in any cycle map to themselves.
-     * Whitespace is ignored.
+     * Whitespace is ignored.  CYCLES is scanned once, in time linear in
+     * its length and the alphabet size; a character that is repeated or
+     * not in ALPHABET is reported with its position in CYCLES.  Over the
+     * byte alphabet, each c is written as two hexadecimal digits.
      */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
         _cycles = cycles;
-        _permList = new HashMap<>();
-        _invPermList = new HashMap<>();
-        for (int i = 0; i < alphabet().size(); i++) {
-            _permList.put(_alphabet.toChar(i), _alphabet.toChar(i));
-            _invPermList.put(_alphabet.toChar(i), _alphabet.toChar(i));
+        _forward = new int[alphabet.size()];
+        _inverse = new int[alphabet.size()];
+        for (int i = 0; i < _forward.length; i++) {
+            _forward[i] = i;
+            _inverse[i] = i;
         }
-        isolateCycles(_cycles);
+        addCycles(_cycles);
     }
 
+    /** Set this Permutation to the one mapping each index K of ALPHABET
+     *  to FORWARD[K], which must contain every index exactly once. */
+    Permutation(int[] forward, Alphabet alphabet) {
+        if (forward.length != alphabet.size()) {
+            throw error("permutation has %d entries for an alphabet of %d",
+                        forward.length, alphabet.size());
+        }
+        _alphabet = alphabet;
+        _cycles = null;
+        _forward = forward.clone();
+        _inverse = new int[forward.length];
+        Arrays.fill(_inverse, -1);
+        for (int k = 0; k < _forward.length; k += 1) {
+            int image = _forward[k];
+            if (image < 0 || image >= _forward.length
+                || _inverse[image] >= 0) {
+                throw error("not a permutation at index %d", k);
+            }
+            _inverse[image] = k;
+        }
+    }
 
+    /** A permutation of ALPHABET with mappings FORWARD and INVERSE, which
+     *  must be inverses and are not copied. */
+    private Permutation(Alphabet alphabet, int[] forward, int[] inverse) {
+        _alphabet = alphabet;
+        _cycles = null;
+        _forward = forward;
+        _inverse = inverse;
+    }
 
-
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        char firstLetter = cycle.charAt(0);
-        for (int i = 0; i < cycle.length(); i++) {
-            if (i == cycle.length() - 1) {
-                _permList.replace(cycle.charAt(i), firstLetter);
-                _invPermList.replace(firstLetter, cycle.charAt(i));
+    /** Add the cycles written in CYCLES to the permutation, where each
+     *  cycle c0c1...cm, in parentheses, maps c0->c1->...->cm->c0. */
+    private void addCycles(String cycles) {
+        boolean hex = _alphabet.isBytes();
+        boolean[] seen = new boolean[size()];
+        boolean open = false;
+        int first = -1, prev = -1;
+        for (int i = 0; i < cycles.length(); i += 1) {
+            char ch = cycles.charAt(i);
+            if (Character.isWhitespace(ch)
+                && (hex || !_alphabet.contains(ch))) {
+                continue;
+            } else if (ch == '(' && !open) {
+                open = true;
+                first = -1;
+            } else if (ch == ')' && open) {
+                if (first >= 0) {
+                    _forward[prev] = first;
+                    _inverse[first] = prev;
+                }
+                open = false;
+            } else if (!open) {
+                throw error("Cycle formed incorrectly: '%c' at position %d",
+                            ch, i);
             } else {
-                _permList.replace(cycle.charAt(i), cycle.charAt(i + 1));
-                _invPermList.replace(cycle.charAt(i + 1), cycle.charAt(i));
-            }
-            if (_permList.values().contains(" ") | _invPermList.values().contains(" ")) {
-                throw new EnigmaException("Cycle formed incorrectly");
+                int next = hex ? hexIndex(cycles, i) : index(ch, i);
+                if (seen[next]) {
+                    throw error("Cycle formed incorrectly: '%s' repeated at "
+                                + "position %d",
+                                cycles.substring(i, hex ? i + 2 : i + 1), i);
+                }
+                seen[next] = true;
+                if (first < 0) {
+                    first = next;
+                } else {
+                    _forward[prev] = next;
+                    _inverse[next] = prev;
+                }
+                prev = next;
+                i += hex ? 1 : 0;
             }
         }
+        if (open) {
+            throw error("Cycle formed incorrectly: missing ')' at position %d",
+                        cycles.length());
+        }
+    }
+
+    /** Return the index in my alphabet of CH, found at position POSN of
+     *  my cycles. */
+    private int index(char ch, int posn) {
+        int result = _alphabet.toInt(ch);
+        if (result < 0) {
+            throw error("Cycle formed incorrectly: '%c' at position %d not "
+                        + "in alphabet", ch, posn);
+        }
+        return result;
+    }
+
+    /** Return the index of the byte written as two hexadecimal digits at
+     *  position POSN of CYCLES. */
+    private static int hexIndex(String cycles, int posn) {
+        int result = Alphabet.hexIndex(cycles, posn);
+        if (result < 0) {
+            throw error("Cycle formed incorrectly: bad hexadecimal byte at "
+                        + "position %d", posn);
+        }
+        return result;
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -62,45 +144,32 @@ class Permutation {
     }
 
 
-    /** Returns a single cycle that contains p. **/
-    private void isolateCycles(String cycles) {
-        String[] cycleList = cycles.split("((\\s*[(])|([)]\\s*[(])|[)]\\s*)");
-        for (String cycle: cycleList) {
-            if (!cycle.equals("")) {
-                addCycle(cycle);
-            }
-        }
-    }
-
-
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _permList.size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        return _alphabet.toInt(permute(_alphabet.toChar(p % _alphabet.size())));
-
-
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        return _alphabet.toInt(invert(_alphabet.toChar(c % _alphabet.size())));
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        return _permList.get(p);
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        return _invPermList.get(c);
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -111,24 +180,212 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        for (int i = 0; i < alphabet().size(); i++) {
-            if (permute(alphabet().toChar(i)) == alphabet().toChar(i)) {
+        for (int i = 0; i < _forward.length; i++) {
+            if (_forward[i] == i) {
                 return false;
             }
         }
         return true;
     }
 
+    /* Algebra.  Permutations never change, so the results below that are
+     * costly to recompute are cached on first use.  A cache may be filled
+     * by several threads at once, which at worst duplicates work.  The
+     * cache fields are volatile and the cached conjugates are atomic
+     * references, so a thread that finds an entry sees it complete. */
+
+    /** Return the permutation that applies me and then NEXT, which must
+     *  have my size. */
+    Permutation compose(Permutation next) {
+        int[] forward = new int[size()];
+        composeInto(next, forward);
+        int[] inverse = new int[size()];
+        for (int k = 0; k < forward.length; k += 1) {
+            inverse[forward[k]] = k;
+        }
+        return new Permutation(_alphabet, forward, inverse);
+    }
+
+    /** Store in DST the mapping that applies me and then NEXT, which must
+     *  have my size, without allocating. */
+    void composeInto(Permutation next, int[] dst) {
+        if (next.size() != size()) {
+            throw error("cannot compose permutations of sizes %d and %d",
+                        size(), next.size());
+        }
+        int[] then = next._forward;
+        for (int k = 0; k < _forward.length; k += 1) {
+            dst[k] = then[_forward[k]];
+        }
+    }
+
+    /** Return my inverse.  The result shares my tables. */
+    Permutation inverse() {
+        Permutation result = _inversePerm;
+        if (result == null) {
+            result = new Permutation(_alphabet, _inverse, _forward);
+            result._inversePerm = this;
+            _inversePerm = result;
+        }
+        return result;
+    }
+
+    /** Return me applied K times in succession (my inverse applied -K
+     *  times if K is negative). */
+    Permutation power(long k) {
+        Cycles cycles = cycles();
+        int[] forward = new int[size()];
+        int[] inverse = new int[size()];
+        for (int c = 0; c + 1 < cycles._bounds.length; c += 1) {
+            int start = cycles._bounds[c];
+            int len = cycles._bounds[c + 1] - start;
+            int shift = (int) Math.floorMod(k, (long) len);
+            for (int i = 0; i < len; i += 1) {
+                int from = cycles._elements[start + i];
+                int to = cycles._elements[start + (i + shift) % len];
+                forward[from] = to;
+                inverse[to] = from;
+            }
+        }
+        return new Permutation(_alphabet, forward, inverse);
+    }
+
+    /** Return my conjugate by a rotation of SHIFT positions: the
+     *  permutation taking P to permute(P + SHIFT) - SHIFT (modulo
+     *  size()), which is what a rotor wired as I am applies at setting
+     *  SHIFT.  Conjugates of alphabets up to MAX_CACHED_CONJUGATES
+     *  symbols are cached. */
+    Permutation conjugate(int shift) {
+        int n = size();
+        int s = wrap(shift);
+        AtomicReferenceArray<Permutation> cache = _conjugates;
+        if (cache == null && n <= MAX_CACHED_CONJUGATES) {
+            cache = _conjugates = new AtomicReferenceArray<>(n);
+        }
+        if (cache != null && cache.get(s) != null) {
+            return cache.get(s);
+        }
+        int[] forward = new int[n];
+        int[] inverse = new int[n];
+        for (int p = 0; p < n; p += 1) {
+            int in = p + s < n ? p + s : p + s - n;
+            int out = _forward[in] - s;
+            forward[p] = out < 0 ? out + n : out;
+            inverse[forward[p]] = p;
+        }
+        Permutation result = new Permutation(_alphabet, forward, inverse);
+        if (cache != null) {
+            cache.set(s, result);
+        }
+        return result;
+    }
+
+    /** Return the lengths of my cycles, including those of length 1, in
+     *  decreasing order. */
+    int[] cycleType() {
+        return cycles()._type.clone();
+    }
+
+    /** Return a copy of my forward mapping: entry K is the image of
+     *  index K. */
+    int[] toArray() {
+        return _forward.clone();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Permutation)) {
+            return false;
+        }
+        Permutation other = (Permutation) obj;
+        return _alphabet.equals(other._alphabet)
+            && Arrays.equals(_forward, other._forward);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * _alphabet.hashCode() + Arrays.hashCode(_forward);
+    }
+
+    /** Return my cycle decomposition, computing it if needed. */
+    private Cycles cycles() {
+        Cycles result = _cycleList;
+        if (result == null) {
+            int n = size();
+            int[] elements = new int[n];
+            int[] bounds = new int[n + 1];
+            boolean[] seen = new boolean[n];
+            int count = 0, numCycles = 0;
+            for (int k = 0; k < n; k += 1) {
+                if (!seen[k]) {
+                    bounds[numCycles++] = count;
+                    for (int j = k; !seen[j]; j = _forward[j]) {
+                        seen[j] = true;
+                        elements[count++] = j;
+                    }
+                }
+            }
+            bounds[numCycles] = n;
+            result =
+                new Cycles(elements, Arrays.copyOf(bounds, numCycles + 1));
+            _cycleList = result;
+        }
+        return result;
+    }
+
+    /** A cycle decomposition: the elements of cycle C, in order, are
+     *  _elements[_bounds[C]] to _elements[_bounds[C + 1] - 1]. */
+    private static class Cycles {
+        /** The decomposition with ELEMENTS and BOUNDS. */
+        Cycles(int[] elements, int[] bounds) {
+            _elements = elements;
+            _bounds = bounds;
+            int[] lengths = new int[bounds.length - 1];
+            for (int c = 0; c < lengths.length; c += 1) {
+                lengths[c] = bounds[c + 1] - bounds[c];
+            }
+            Arrays.sort(lengths);
+            for (int i = 0, j = lengths.length - 1; i < j; i += 1, j -= 1) {
+                int t = lengths[i];
+                lengths[i] = lengths[j];
+                lengths[j] = t;
+            }
+            _type = lengths;
+        }
+
+        /** Elements of all cycles, cycle by cycle. */
+        private final int[] _elements;
+
+        /** Start of each cycle in _elements, followed by the number of
+         *  elements. */
+        private final int[] _bounds;
+
+        /** Cycle lengths in decreasing order. */
+        private final int[] _type;
+    }
+
+    /** Size of the largest alphabet whose conjugates are cached. */
+    static final int MAX_CACHED_CONJUGATES = 256;
 
     /** Alphabet of this permutation. */
-    private Alphabet _alphabet;
+    private final Alphabet _alphabet;
+
+    /** Cycles for this permutation, or null if it was given as a
+     *  mapping. */
+    private final String _cycles;
+
+    /** Forward mapping: _forward[K] is the image of index K. */
+    private final int[] _forward;
+
+    /** Inverse mapping: _inverse[K] is the preimage of index K. */
+    private final int[] _inverse;
 
-    /** Cycles for this permutation. */
-    private String _cycles;
+    /** My inverse, once computed. */
+    private volatile Permutation _inversePerm;
 
-    /** List of permutations **/
-    private HashMap<Character, Character> _permList;
+    /** My conjugates by rotation, by shift, or null if not cached. */
+    private volatile AtomicReferenceArray<Permutation> _conjugates;
 
-    /** List of inverses **/
-    private HashMap<Character, Character> _invPermList;
+    /** My cycle decomposition, once computed. */
+    private volatile Cycles _cycleList;
 }
@@ -108,4 +108,102 @@ public class PermutationTest {
         assertFalse(nonDerPerm2.derangement());
     }
 
+    @Test
+    public void checkCycleErrors() {
+        String[] bad = {"(ABCA)", "(AB) (CB)", "(AB", "AB", "(A*B)",
+                        "(AB))", "((AB)"};
+        int[] posns = {4, 7, 3, 0, 2, 4, 1};
+        for (int i = 0; i < bad.length; i += 1) {
+            try {
+                new Permutation(bad[i], UPPER);
+                fail(msg("cycles", "%s accepted", bad[i]));
+            } catch (EnigmaException excp) {
+                assertTrue(msg("cycles", "%s: %s", bad[i], excp.getMessage()),
+                           excp.getMessage().contains("position " + posns[i]));
+            }
+        }
+    }
+
+    @Test
+    public void checkLargeAlphabet() {
+        StringBuilder chars = new StringBuilder();
+        StringBuilder cycle = new StringBuilder("(");
+        for (char c = '\u4e00'; c < '\u5e00'; c += 1) {
+            chars.append(c);
+            cycle.append(c);
+        }
+        Alphabet alpha = new Alphabet(chars.toString());
+        Permutation perm = new Permutation(cycle.append(")").toString(),
+                                           alpha);
+        for (int i = 0; i < alpha.size(); i += 1) {
+            assertEquals((i + 1) % alpha.size(), perm.permute(i));
+            assertEquals(i, perm.invert(perm.permute(i)));
+        }
+    }
+
+    @Test
+    public void checkHexCycles() {
+        Permutation perm = new Permutation("(00ff 28) (29 0a)",
+                                           Alphabet.bytes());
+        assertEquals(0xff, perm.permute(0));
+        assertEquals(0x28, perm.permute(0xff));
+        assertEquals(0, perm.permute(0x28));
+        assertEquals(0x0a, perm.permute(0x29));
+        assertEquals(0x29, perm.invert(0x0a));
+        assertEquals(0x41, perm.permute(0x41));
+        try {
+            new Permutation("(0a0A)", Alphabet.bytes());
+            fail("repeated byte accepted");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("position 3"));
+        }
+    }
+
+    @Test
+    public void checkAlgebra() {
+        Permutation perm = new Permutation("(BACE) (DF)", UPPER);
+        Permutation other = new Permutation("(AZ) (QRS)", UPPER);
+        Permutation both = perm.compose(other);
+        for (int p = 0; p < 26; p += 1) {
+            assertEquals(other.permute(perm.permute(p)), both.permute(p));
+            assertEquals(p, both.invert(both.permute(p)));
+            assertEquals(perm.invert(p), perm.inverse().permute(p));
+            assertEquals(perm.permute(perm.permute(perm.permute(p))),
+                         perm.power(3).permute(p));
+            assertEquals(perm.invert(p), perm.power(-1).permute(p));
+        }
+        assertTrue(perm.inverse().inverse() == perm);
+        assertEquals(new Permutation("", UPPER), perm.power(4));
+        assertEquals(perm, perm.power(5));
+        assertArrayEquals(new int[] {4, 2, 1, 1}, new Permutation(
+            "(BACE) (DF)", new Alphabet("ABCDEFGH")).cycleType());
+        assertEquals(22, perm.cycleType().length);
+    }
+
+    @Test
+    public void checkEquality() {
+        Permutation perm = new Permutation("(BA)", new Alphabet("ABC"));
+        Permutation same = new Permutation("(AB)", new Alphabet("ABC"));
+        Permutation other = new Permutation("(XW)", new Alphabet("WXY"));
+        assertEquals(perm, same);
+        assertEquals(perm.hashCode(), same.hashCode());
+        assertArrayEquals(perm.toArray(), other.toArray());
+        assertFalse(perm.equals(other));
+    }
+
+    @Test
+    public void checkConjugate() {
+        Permutation wiring = new Permutation(NAVALA.get("I"), UPPER);
+        Rotor rotor = new Rotor("I", wiring);
+        for (int s = 0; s < 26; s += 1) {
+            rotor.set(s);
+            Permutation shifted = wiring.conjugate(s);
+            assertTrue(shifted == wiring.conjugate(s + 26));
+            for (int p = 0; p < 26; p += 1) {
+                assertEquals(rotor.convertForward(p), shifted.permute(p));
+                assertEquals(rotor.convertBackward(p), shifted.invert(p));
+            }
+        }
+    }
+
 }
@@ -2,7 +2,11 @@ package enigma;
 
 import static enigma.EnigmaException.*;
 
-/** Superclass that represents a rotor in the enigma machine.
+/** Superclass that represents a rotor in the enigma machine.  A rotor's
+ *  name, wiring and notches never change, so one Rotor may be shared by
+ *  any number of machines, which keep their rotors' positions themselves
+ *  and pass them to the conversion methods.  The setting() held by the
+ *  rotor itself serves only for using it on its own.
  *  @author Izaac Ruiz
  */
 class Rotor {
@@ -12,6 +16,7 @@ class Rotor {
         this._name = name;
         this._permutation = perm;
         this._setting = 0;
+        this._size = perm.alphabet().size();
     }
 
     /** Return my name. */
@@ -31,7 +36,7 @@ class Rotor {
 
     /** Return the size of my alphabet. */
     int size() {
-        return _permutation.alphabet().size();
+        return _size;
     }
 
     /** Return true iff I have a ratchet and can move. */
@@ -62,21 +67,66 @@ class Rotor {
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int contactEntered = Math.floorMod
-                (_setting + p, _permutation.alphabet().size());
-        int contactExiting = _permutation.permute(contactEntered);
-        return Math.floorMod
-                (contactExiting - _setting, _permutation.alphabet().size());
+        return convertForward(p, _setting);
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int contactEntered = Math.floorMod
-                (_setting + e, _permutation.alphabet().size());
+        return convertBackward(e, _setting);
+    }
+
+    /** Return the conversion of P (an integer in the range 0..size()-1)
+     *  according to my permutation when I am at setting POSN. */
+    int convertForward(int p, int posn) {
+        int[] table = _forwardTable;
+        if (table != null) {
+            return table[posn * _size + p];
+        }
+        int contactEntered = Math.floorMod(posn + p, _size);
+        int contactExiting = _permutation.permute(contactEntered);
+        return Math.floorMod(contactExiting - posn, _size);
+    }
+
+    /** Return the conversion of E (an integer in the range 0..size()-1)
+     *  according to the inverse of my permutation when I am at setting
+     *  POSN. */
+    int convertBackward(int e, int posn) {
+        if (_forwardTable != null) {
+            return _backwardTable[posn * _size + e];
+        }
+        int contactEntered = Math.floorMod(posn + e, _size);
         int contactExiting = _permutation.invert(contactEntered);
-        return Math.floorMod
-                (contactExiting - _setting, _permutation.alphabet().size());
+        return Math.floorMod(contactExiting - posn, _size);
+    }
+
+    /** Precompute my forward and backward conversions for every setting,
+     *  so that convertForward and convertBackward become a single table
+     *  load.  Does nothing if I am already compiled or if my alphabet is
+     *  larger than MAX_COMPILED_SIZE.  May be called concurrently by
+     *  machines sharing me. */
+    synchronized void compile() {
+        if (_forwardTable != null || _size > MAX_COMPILED_SIZE) {
+            return;
+        }
+        int[] forward = new int[_size * _size];
+        int[] backward = new int[_size * _size];
+        for (int s = 0, row = 0; s < _size; s += 1, row += _size) {
+            for (int p = 0; p < _size; p += 1) {
+                int in = p + s < _size ? p + s : p + s - _size;
+                forward[row + p] =
+                    Math.floorMod(_permutation.permute(in) - s, _size);
+                backward[row + p] =
+                    Math.floorMod(_permutation.invert(in) - s, _size);
+            }
+        }
+        _backwardTable = backward;
+        _forwardTable = forward;
+    }
+
+    /** Return true iff compile() has built my conversion tables. */
+    boolean compiled() {
+        return _forwardTable != null;
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
@@ -85,6 +135,11 @@ class Rotor {
         return false;
     }
 
+    /** Returns true iff I would be at a notch at setting POSN. */
+    boolean notchAt(int posn) {
+        return false;
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
@@ -102,6 +157,20 @@ class Rotor {
 
     /** Current setting for permutation */
     private int _setting;
-    // FIXME: ADDITIONAL FIELDS HERE, AS NEEDED
+
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** Largest alphabet for which compile() builds conversion tables. */
+    static final int MAX_COMPILED_SIZE = 256;
+
+    /** Forward conversions by setting: entry S * size() + P is the
+     *  conversion of P at setting S.  Null until compiled.  Assigned
+     *  after _backwardTable, so that seeing it non-null guarantees that
+     *  both tables are visible. */
+    private volatile int[] _forwardTable;
+
+    /** Backward conversions, laid out as _forwardTable. */
+    private int[] _backwardTable;
 
 }
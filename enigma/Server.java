@@ -0,0 +1,439 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static enigma.EnigmaException.*;
+
+/** A long-running server that converts messages for its clients with a
+ *  single configuration, loaded once.  It listens on a loopback TCP port
+ *  or a Unix-domain socket, and serves each connection on its own thread
+ *  (a virtual thread where the JDK provides them) with its own copy of
+ *  the machine.
+ *
+ *  On a connection, a client sends any number of messages, each as a
+ *  frame holding a setting line, as in the input to Main, followed by
+ *  frames holding the message, and then an empty frame.  A frame is a
+ *  four-byte big-endian length followed by that many bytes.  Text is in
+ *  UTF-8, except that the message frames of a machine over the byte
+ *  alphabet hold raw bytes.  The server answers each message frame with
+ *  a frame holding its conversion, in which whitespace outside the
+ *  alphabet is passed through, and ends each message with an empty
+ *  frame.  A character split between frames is converted with the frame
+ *  that completes it, and a frame holding no whole character gets no
+ *  answer, since an empty answer would end the message.  On an error,
+ *  it instead sends a length of -1 followed by a frame holding the
+ *  error message, and closes the connection.
+ *  @author Izaac Ruiz
+ */
+class Server {
+
+    /** A server converting with MACHINE, whose settings and plugboard it
+     *  does not use, bound to ADDRESS.  A Unix-domain socket file left
+     *  over from an earlier server is replaced, but any other file, or a
+     *  socket on which a server is still listening, is an error. */
+    Server(Machine machine, SocketAddress address) throws IOException {
+        _template = machine.copy();
+        if (address instanceof UnixDomainSocketAddress) {
+            removeStaleSocket(((UnixDomainSocketAddress) address).getPath());
+            _channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            _channel = ServerSocketChannel.open();
+        }
+        _channel.bind(address);
+    }
+
+    /** Delete the file PATH if it is a Unix-domain socket that no server
+     *  is listening on.  Do nothing if there is no file PATH, and throw
+     *  an EnigmaException if it is anything else. */
+    private static void removeStaleSocket(Path path) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path,
+                                              BasicFileAttributes.class,
+                                              LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException excp) {
+            return;
+        }
+        if (!isSocket(path, attributes)) {
+            throw error("%s exists and is not a socket", path);
+        }
+        boolean live;
+        try (SocketChannel probe =
+             SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            live = probe.connect(UnixDomainSocketAddress.of(path));
+        } catch (IOException excp) {
+            live = false;
+        }
+        if (live) {
+            throw error("a server is already listening on %s", path);
+        }
+        Files.delete(path);
+    }
+
+    /** Return true iff the file PATH, whose ATTRIBUTES are given, is a
+     *  socket.  Where the file system does not report Unix file types,
+     *  any file that is not a regular file, directory or link counts. */
+    private static boolean isSocket(Path path,
+                                    BasicFileAttributes attributes)
+        throws IOException {
+        try {
+            int mode = (Integer) Files.getAttribute(path, "unix:mode",
+                                                    LinkOption.NOFOLLOW_LINKS);
+            return (mode & S_IFMT) == S_IFSOCK;
+        } catch (UnsupportedOperationException excp) {
+            return attributes.isOther();
+        }
+    }
+
+    /** Return the address named by TEXT: a port number on the loopback
+     *  interface if TEXT is a decimal numeral, and otherwise the path of
+     *  a Unix-domain socket. */
+    static SocketAddress address(String text) {
+        if (text.matches("[0-9]+")) {
+            try {
+                return new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                             Integer.parseInt(text));
+            } catch (IllegalArgumentException excp) {
+                throw error("bad port number %s", text);
+            }
+        }
+        return UnixDomainSocketAddress.of(Path.of(text));
+    }
+
+    /** Return the address to which I am bound. */
+    SocketAddress localAddress() throws IOException {
+        return _channel.getLocalAddress();
+    }
+
+    /** Accept and serve connections until close() is called.  Messages
+     *  served are counted in Metrics. */
+    void serve() throws IOException {
+        ExecutorService sessions = newExecutor();
+        try {
+            while (true) {
+                SocketChannel client = _channel.accept();
+                sessions.execute(() -> serve(client));
+            }
+        } catch (ClosedChannelException excp) {
+            return;
+        } finally {
+            sessions.shutdown();
+        }
+    }
+
+    /** Stop accepting connections.  Connections already accepted are
+     *  served to completion. */
+    void close() throws IOException {
+        _channel.close();
+    }
+
+    /** Serve the connection CLIENT, closing it afterwards. */
+    private void serve(SocketChannel client) {
+        try (client) {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(client)));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(client)));
+            Session session = new Session(newMachine(), in, out);
+            try {
+                while (session.next()) {
+                    session.convert();
+                }
+            } catch (EnigmaException excp) {
+                byte[] text =
+                    excp.getMessage().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(-1);
+                writeFrame(out, text, text.length);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Return a new copy of my machine.  No thread modifies _template,
+     *  so sessions may copy it at once without locking. */
+    private Machine newMachine() {
+        return _template.copy();
+    }
+
+    /** The state of one connection. */
+    private static class Session {
+        /** A session converting with MACHINE, reading frames from IN and
+         *  writing them to OUT. */
+        Session(Machine machine, DataInputStream in, DataOutputStream out) {
+            _machine = machine;
+            _alphabet = machine.alphabet();
+            _in = in;
+            _out = out;
+            _decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+            _encoder = StandardCharsets.UTF_8.newEncoder();
+        }
+
+        /** Read the setting frame of the next message and set my machine
+         *  accordingly, returning false if the client has finished. */
+        boolean next() throws IOException {
+            int length;
+            try {
+                length = _in.readInt();
+            } catch (EOFException excp) {
+                return false;
+            }
+            _bytes.clear();
+            readFrame(length, MAX_SETTING);
+            char[] line = decode(_bytes).toCharArray();
+            if (line.length == 0 || line[0] != '*') {
+                throw error("message does not start with a setting");
+            }
+            Main.setUp(_machine, Main.items(line, 1, line.length));
+            return true;
+        }
+
+        /** Convert the frames of the current message, up to and
+         *  including its empty frame.  Frames are read into and
+         *  converted in my scratch buffers, which grow only when a
+         *  frame does not fit. */
+        void convert() throws IOException {
+            _timer.begin();
+            _decoder.reset();
+            _bytes.clear();
+            while (true) {
+                int length = _in.readInt();
+                if (length == 0) {
+                    break;
+                }
+                readFrame(length, MAX_FRAME);
+                if (_alphabet.isBytes()) {
+                    _timer.add(length);
+                    _byteView.clear().limit(length);
+                    _machine.convert(_bytes, _byteView);
+                    writeFrame(_out, _bytes.array(), length);
+                    _bytes.clear();
+                } else {
+                    reserveChars(_bytes.remaining());
+                    check(_decoder.decode(_bytes, _chars, false));
+                    _bytes.compact();
+                    convert(_chars.flip());
+                    int n = encode(_chars);
+                    if (n > 0) {
+                        writeFrame(_out, _encoded.array(), n);
+                    }
+                }
+                _out.flush();
+            }
+            if (_bytes.position() > 0) {
+                throw error("message ends within a character");
+            }
+            _out.writeInt(0);
+            _out.flush();
+            _timer.end();
+        }
+
+        /** Convert CHARS, which is _chars, in place, passing whitespace
+         *  outside my alphabet through.  Each run of characters of my
+         *  alphabet is converted through _charView. */
+        private void convert(CharBuffer chars) {
+            char[] text = chars.array();
+            int end = chars.limit();
+            int n = 0;
+            for (int i = 0; i < end; ) {
+                if (_alphabet.toInt(text[i]) < 0) {
+                    if (!Character.isWhitespace(text[i])) {
+                        throw error("character '%c' not in alphabet",
+                                    text[i]);
+                    }
+                    i += 1;
+                    continue;
+                }
+                int j = i + 1;
+                while (j < end && _alphabet.toInt(text[j]) >= 0) {
+                    j += 1;
+                }
+                chars.limit(j).position(i);
+                _charView.limit(j).position(i);
+                _machine.convert(chars, _charView);
+                n += j - i;
+                i = j;
+            }
+            chars.limit(end).position(0);
+            _timer.add(n);
+        }
+
+        /** Read the frame of LENGTH bytes that follows on my input,
+         *  which may be no longer than MAX, appending it to the bytes
+         *  already in _bytes, and flip _bytes for reading. */
+        private void readFrame(int length, int max) throws IOException {
+            if (length < 0 || length > max) {
+                throw error("bad frame length %d", length);
+            }
+            if (_bytes.remaining() < length) {
+                ByteBuffer bigger =
+                    ByteBuffer.allocate(Math.max(2 * _bytes.capacity(),
+                                                 _bytes.position()
+                                                 + length));
+                _bytes = bigger.put(_bytes.flip());
+                _byteView = _bytes.duplicate();
+            }
+            int posn = _bytes.position();
+            _in.readFully(_bytes.array(), posn, length);
+            _bytes.position(posn + length).flip();
+        }
+
+        /** Clear _chars for writing, first growing it, and _charView
+         *  with it, if it cannot hold N characters. */
+        private void reserveChars(int n) {
+            if (_chars.capacity() < n) {
+                _chars = CharBuffer.allocate(Math.max(2 * _chars.capacity(),
+                                                      n));
+                _charView = _chars.duplicate();
+            }
+            _chars.clear();
+        }
+
+        /** Return the whole of BYTES decoded from UTF-8. */
+        private String decode(ByteBuffer bytes) {
+            _decoder.reset();
+            CharBuffer result = CharBuffer.allocate(bytes.remaining());
+            check(_decoder.decode(bytes, result, true));
+            check(_decoder.flush(result));
+            return result.flip().toString();
+        }
+
+        /** Encode CHARS in UTF-8 into _encoded, growing it if needed, and
+         *  return the number of bytes written. */
+        private int encode(CharBuffer chars) {
+            int n = (int) (chars.remaining() * _encoder.maxBytesPerChar());
+            if (_encoded.capacity() < n) {
+                _encoded = ByteBuffer.allocate(Math.max(2
+                                                        * _encoded.capacity(),
+                                                        n));
+            }
+            _encoded.clear();
+            _encoder.reset();
+            _encoder.encode(chars, _encoded, true);
+            _encoder.flush(_encoded);
+            return _encoded.position();
+        }
+
+        /** Report RESULT, a result of decoding, if it is an error. */
+        private void check(CoderResult result) {
+            if (result.isError()) {
+                throw error("bad UTF-8 in message");
+            }
+        }
+
+        /** Machine converting my messages. */
+        private final Machine _machine;
+
+        /** Alphabet of _machine. */
+        private final Alphabet _alphabet;
+
+        /** Client requests. */
+        private final DataInputStream _in;
+
+        /** Responses to the client. */
+        private final DataOutputStream _out;
+
+        /** Decoder of message text, which may hold a partial character
+         *  between frames. */
+        private final CharsetDecoder _decoder;
+
+        /** Encoder of converted text. */
+        private final CharsetEncoder _encoder;
+
+        /** Scratch buffer of frames read, which between the frames of a
+         *  message holds the bytes of a partial character. */
+        private ByteBuffer _bytes = ByteBuffer.allocate(0);
+
+        /** A second view of the array of _bytes, as the destination of
+         *  conversions in place. */
+        private ByteBuffer _byteView = _bytes.duplicate();
+
+        /** Scratch buffer of decoded text. */
+        private CharBuffer _chars = CharBuffer.allocate(0);
+
+        /** A second view of the array of _chars, as the destination of
+         *  conversions in place. */
+        private CharBuffer _charView = _chars.duplicate();
+
+        /** Scratch buffer of encoded text. */
+        private ByteBuffer _encoded = ByteBuffer.allocate(0);
+
+        /** Timing of the current message. */
+        private final Metrics.MessageTimer _timer =
+            new Metrics.MessageTimer();
+    }
+
+    /** Write the first LENGTH bytes of BYTES to OUT as a frame. */
+    private static void writeFrame(DataOutputStream out, byte[] bytes,
+                                   int length) throws IOException {
+        out.writeInt(length);
+        out.write(bytes, 0, length);
+    }
+
+    /** Return an executor running each task on a new virtual thread if
+     *  this JDK has them, and otherwise on a pooled daemon thread. */
+    private static ExecutorService newExecutor() {
+        try {
+            Method factory =
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException
+                 | UnsupportedOperationException excp) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread result = new Thread(task, "enigma-session");
+                result.setDaemon(true);
+                return result;
+            });
+        }
+    }
+
+    /** Largest setting frame accepted, in bytes. */
+    private static final int MAX_SETTING = 1 << 16;
+
+    /** Largest message frame accepted, in bytes. */
+    private static final int MAX_FRAME = 1 << 20;
+
+    /** Mask of the file type bits of a Unix file mode. */
+    private static final int S_IFMT = 0170000;
+
+    /** File type bits of a Unix-domain socket. */
+    private static final int S_IFSOCK = 0140000;
+
+    /** Machine copied for each connection. */
+    private final Machine _template;
+
+    /** Channel on which connections are accepted. */
+    private final ServerSocketChannel _channel;
+}
@@ -0,0 +1,265 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Server class.
+ *  @author
+ */
+public class ServerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Setting line used by the tests. */
+    private static final String SETTING =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return a naval machine with four rotor slots. */
+    private static Machine naval() {
+        return new Machine(UPPER, 5, 3, navalRotors());
+    }
+
+    /** Return a server for a naval machine at ADDRESS, already serving
+     *  on another thread. */
+    private static Server start(SocketAddress address) throws IOException {
+        Server server = new Server(naval(), address);
+        Thread thread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException excp) {
+                throw new RuntimeException(excp);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    /** Return LETTERS, with blanks kept, as converted after SETTING. */
+    private static String expected(String letters) {
+        Machine mach = naval();
+        mach.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        mach.setRotors("AXLE");
+        mach.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)",
+                                          UPPER));
+        StringBuilder result = new StringBuilder();
+        for (char c : letters.toCharArray()) {
+            result.append(c == ' ' ? c : UPPER.toChar(
+                mach.convert(UPPER.toInt(c))));
+        }
+        return result.toString();
+    }
+
+    /** Write TEXT as a frame to OUT. */
+    private static void send(DataOutputStream out, String text)
+        throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return the text of the frames that IN sends up to an empty one,
+     *  concatenated, or "error: " followed by its error message. */
+    private static String receive(DataInputStream in) throws IOException {
+        StringBuilder result = new StringBuilder();
+        while (true) {
+            int length = in.readInt();
+            if (length == 0) {
+                return result.toString();
+            }
+            boolean failed = length < 0;
+            if (failed) {
+                length = in.readInt();
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            if (failed) {
+                return "error: " + text;
+            }
+            result.append(text);
+        }
+    }
+
+    /** Send SETTING and the message in FRAMES on CLIENT, returning the
+     *  reply. */
+    private static String exchange(SocketChannel client, String setting,
+                                   String... frames) throws IOException {
+        DataOutputStream out =
+            new DataOutputStream(Channels.newOutputStream(client));
+        send(out, setting);
+        for (String frame : frames) {
+            send(out, frame);
+        }
+        out.writeInt(0);
+        return receive(new DataInputStream(Channels.newInputStream(client)));
+    }
+
+    @Test
+    public void checkConvert() throws IOException {
+        Server server = start(Server.address("0"));
+        try (SocketChannel client =
+             SocketChannel.open(server.localAddress())) {
+            assertEquals(expected("FROM HIS SHOULDER HIAWATHA"),
+                         exchange(client, SETTING, "FROM HIS SHOU",
+                                  "LDER HIAWATHA"));
+            assertEquals("restarts at each setting",
+                         expected("FROM HIS"),
+                         exchange(client, SETTING, "FROM HIS"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void checkErrors() throws IOException {
+        Server server = start(Server.address("0"));
+        try {
+            try (SocketChannel client =
+                 SocketChannel.open(server.localAddress())) {
+                assertEquals("error: rotor X not available",
+                             exchange(client, "* B Beta X IV I AXLE"));
+            }
+            try (SocketChannel client =
+                 SocketChannel.open(server.localAddress())) {
+                assertEquals("error: character '1' not in alphabet",
+                             exchange(client, SETTING, "AB1"));
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void checkSplitCharacter() throws IOException {
+        Server server = start(Server.address("0"));
+        byte[] message =
+            "AB\u2003CD".getBytes(StandardCharsets.UTF_8);
+        try (SocketChannel client =
+             SocketChannel.open(server.localAddress())) {
+            DataOutputStream out =
+                new DataOutputStream(Channels.newOutputStream(client));
+            send(out, SETTING);
+            for (byte b : message) {
+                out.writeInt(1);
+                out.write(b);
+            }
+            out.writeInt(0);
+            assertEquals(expected("AB CD").replace(' ', '\u2003'),
+                         receive(new DataInputStream(
+                             Channels.newInputStream(client))));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void checkUnixSocket() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path socket = dir.resolve("enigma.sock");
+        Server server = start(Server.address(socket.toString()));
+        try (SocketChannel client =
+             SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            client.connect(UnixDomainSocketAddress.of(socket));
+            assertEquals(expected("HIAWATHA"),
+                         exchange(client, SETTING, "HIAWATHA"));
+        } finally {
+            server.close();
+            Files.deleteIfExists(socket);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void checkStaleSocket() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path socket = dir.resolve("enigma.sock");
+        SocketAddress address = Server.address(socket.toString());
+        try {
+            new Server(naval(), address).close();
+            assertTrue(Files.exists(socket));
+            Server server = start(address);
+            try {
+                new Server(naval(), address);
+                fail("bound a socket in use");
+            } catch (EnigmaException excp) {
+                assertTrue(Files.exists(socket));
+            } finally {
+                server.close();
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void checkKeepsOtherFiles() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path file = dir.resolve("enigma.sock");
+        Files.write(file, "data".getBytes(StandardCharsets.UTF_8));
+        try {
+            new Server(naval(), Server.address(file.toString()));
+            fail("replaced a regular file");
+        } catch (EnigmaException excp) {
+            assertEquals("data", Files.readString(file));
+        } finally {
+            Files.delete(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void checkConcurrentClients() throws Exception {
+        Server server = start(Server.address("0"));
+        String message = "TOOK THE CAMERA OF ROSEWOOD ".repeat(50);
+        List<Thread> clients = new ArrayList<>();
+        List<String> replies = new ArrayList<>();
+        try {
+            for (int i = 0; i < 16; i += 1) {
+                Thread client = new Thread(() -> {
+                    try (SocketChannel channel =
+                         SocketChannel.open(server.localAddress())) {
+                        String reply = exchange(channel, SETTING, message);
+                        synchronized (replies) {
+                            replies.add(reply);
+                        }
+                    } catch (IOException excp) {
+                        throw new RuntimeException(excp);
+                    }
+                });
+                client.start();
+                clients.add(client);
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+        } finally {
+            server.close();
+        }
+        assertEquals(16, replies.size());
+        for (String reply : replies) {
+            assertEquals(expected(message), reply);
+        }
+    }
+}
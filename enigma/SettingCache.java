@@ -0,0 +1,239 @@
+package enigma;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A cache of machine templates by setting line, bounded by their
+ *  approximate size in bytes, from which the least recently used are
+ *  evicted first.  Keys are setting lines normalized by key(), so that
+ *  lines differing only in spacing share an entry.  A cache may be used
+ *  by several threads at once: keys are spread by hash over stripes,
+ *  each locked separately and holding its templates in order of use,
+ *  so that lookups of different keys rarely wait on one another.  When
+ *  the cache is full, the eldest templates of the stripes are evicted
+ *  in turn, which approximates evicting the least recently used.  End
+ *  tables shared by several templates are counted once.  Hits and
+ *  misses are counted here and in Metrics.
+ *  @author Izaac Ruiz
+ */
+class SettingCache {
+
+    /** An empty cache holding at most CAPACITY bytes of templates in
+     *  STRIPES stripes. */
+    SettingCache(long capacity, int stripes) {
+        _capacity = capacity;
+        _stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i += 1) {
+            _stripes[i] = new Stripe();
+        }
+    }
+
+    /** An empty cache of DEFAULT_CAPACITY bytes in STRIPES stripes. */
+    SettingCache() {
+        this(DEFAULT_CAPACITY, STRIPES);
+    }
+
+    /** Return the key for the setting line whose items following its
+     *  '*' are ITEMS. */
+    static String key(String[] items) {
+        return String.join(" ", items);
+    }
+
+    /** Return the approximate number of bytes taken by TEMPLATE under
+     *  KEY in a cache holding no other template. */
+    static long weight(String key, Machine.Template template) {
+        return template.weight() + Character.BYTES * key.length()
+            + tableWeight(template.entry()) + tableWeight(template.exit());
+    }
+
+    /** Return the template for KEY, or null if there is none. */
+    Machine.Template get(String key) {
+        Machine.Template result = _stripes[index(key)].get(key);
+        if (result == null) {
+            _misses.increment();
+        } else {
+            _hits.increment();
+        }
+        Metrics.settingCache(result != null);
+        return result;
+    }
+
+    /** Store TEMPLATE for KEY, evicting templates as needed to stay
+     *  within my capacity.  A template larger than my capacity is not
+     *  stored. */
+    void put(String key, Machine.Template template) {
+        if (weight(key, template) > _capacity) {
+            return;
+        }
+        int home = index(key);
+        _stripes[home].put(key, template);
+        boolean evicted = false;
+        for (int s = home; _weight.get() > _capacity; ) {
+            s = (s + 1) % _stripes.length;
+            evicted |= _stripes[s].evictEldest(key);
+            if (s == home) {
+                if (!evicted) {
+                    break;
+                }
+                evicted = false;
+            }
+        }
+    }
+
+    /** Return the number of templates I hold. */
+    int size() {
+        int result = 0;
+        for (Stripe stripe : _stripes) {
+            result += stripe.size();
+        }
+        return result;
+    }
+
+    /** Return the approximate number of bytes of templates I hold. */
+    long weight() {
+        return _weight.get();
+    }
+
+    /** Return the number of lookups that found a template. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Return the number of lookups that found no template. */
+    long misses() {
+        return _misses.sum();
+    }
+
+    /** Return the number of templates evicted. */
+    long evictions() {
+        return _evictions.sum();
+    }
+
+    /** Return the index of the stripe holding KEY. */
+    private int index(String key) {
+        return Math.floorMod(key.hashCode(), _stripes.length);
+    }
+
+    /** Count TEMPLATE under KEY as held, adding its weight, but that of
+     *  its end tables only if no other template held shares them. */
+    private void hold(String key, Machine.Template template) {
+        _weight.addAndGet(template.weight() + Character.BYTES * key.length()
+                          + hold(template.entry())
+                          + hold(template.exit()));
+    }
+
+    /** Count TEMPLATE under KEY as no longer held, subtracting its
+     *  weight, and that of its end tables if no other template held
+     *  shares them. */
+    private void release(String key, Machine.Template template) {
+        _weight.addAndGet(-(template.weight()
+                            + Character.BYTES * key.length()
+                            + release(template.entry())
+                            + release(template.exit())));
+    }
+
+    /** Add a reference to TABLE, if not null, and return its weight if
+     *  it was not referenced before, and otherwise 0. */
+    private long hold(int[] table) {
+        if (table == null || _tables.merge(table, 1, Integer::sum) > 1) {
+            return 0;
+        }
+        return tableWeight(table);
+    }
+
+    /** Remove a reference to TABLE, if not null, and return its weight
+     *  if no references remain, and otherwise 0. */
+    private long release(int[] table) {
+        if (table == null
+            || _tables.computeIfPresent(table,
+                                        (t, n) -> n == 1 ? null : n - 1)
+               != null) {
+            return 0;
+        }
+        return tableWeight(table);
+    }
+
+    /** Return the approximate number of bytes taken by TABLE, or 0 if
+     *  it is null. */
+    private static long tableWeight(int[] table) {
+        return table == null ? 0 : (long) Integer.BYTES * table.length;
+    }
+
+    /** One stripe of the cache, holding the templates whose keys hash
+     *  to it. */
+    private class Stripe {
+        /** Return the template for KEY, or null if there is none. */
+        synchronized Machine.Template get(String key) {
+            return _templates.get(key);
+        }
+
+        /** Store TEMPLATE for KEY. */
+        synchronized void put(String key, Machine.Template template) {
+            Machine.Template old = _templates.put(key, template);
+            hold(key, template);
+            if (old != null) {
+                release(key, old);
+            }
+        }
+
+        /** Evict my least recently used template, unless its key is
+         *  KEEP.  Return true iff one was evicted. */
+        synchronized boolean evictEldest(String keep) {
+            Iterator<Map.Entry<String, Machine.Template>> eldest =
+                _templates.entrySet().iterator();
+            if (!eldest.hasNext()) {
+                return false;
+            }
+            Map.Entry<String, Machine.Template> entry = eldest.next();
+            if (entry.getKey().equals(keep)) {
+                return false;
+            }
+            eldest.remove();
+            release(entry.getKey(), entry.getValue());
+            _evictions.increment();
+            return true;
+        }
+
+        /** Return the number of templates I hold. */
+        synchronized int size() {
+            return _templates.size();
+        }
+
+        /** My templates, least recently used first. */
+        private final LinkedHashMap<String, Machine.Template> _templates =
+            new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /** Default capacity, in bytes. */
+    static final long DEFAULT_CAPACITY = 16L << 20;
+
+    /** Default number of stripes. */
+    static final int STRIPES = 16;
+
+    /** Largest total weight of my templates, in bytes. */
+    private final long _capacity;
+
+    /** My stripes. */
+    private final Stripe[] _stripes;
+
+    /** Number of templates held that refer to each end table, by
+     *  identity. */
+    private final ConcurrentHashMap<int[], Integer> _tables =
+        new ConcurrentHashMap<>();
+
+    /** Total weight of my templates. */
+    private final AtomicLong _weight = new AtomicLong();
+
+    /** Number of lookups that found a template. */
+    private final LongAdder _hits = new LongAdder();
+
+    /** Number of lookups that found no template. */
+    private final LongAdder _misses = new LongAdder();
+
+    /** Number of templates evicted. */
+    private final LongAdder _evictions = new LongAdder();
+}
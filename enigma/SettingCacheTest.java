@@ -0,0 +1,131 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the SettingCache class.
+ *  @author
+ */
+public class SettingCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Return a template of MACH with rotors ROTORS at SETTING. */
+    private static Machine.Template template(Machine mach, String setting,
+                                            String... rotors) {
+        mach.insertRotors(rotors);
+        mach.setRotors(setting);
+        return mach.template();
+    }
+
+    /** Return templates of a naval machine with rotors B Beta I II III
+     *  at each of SETTINGS in turn, which share their end tables. */
+    private static Machine.Template[] templates(String... settings) {
+        Machine mach = new Machine(UPPER, 5, 3, navalRotors());
+        mach.insertRotors(new String[] {"B", "Beta", "I", "II", "III"});
+        Machine.Template[] result = new Machine.Template[settings.length];
+        for (int i = 0; i < settings.length; i += 1) {
+            mach.setRotors(settings[i]);
+            result[i] = mach.template();
+        }
+        return result;
+    }
+
+    @Test
+    public void checkKeys() {
+        char[] line = "* B  Beta\tI II III AAAA  (AB) ".toCharArray();
+        assertEquals("B Beta I II III AAAA (AB)",
+                     SettingCache.key(Main.items(line, 1, line.length)));
+    }
+
+    @Test
+    public void checkHitsAndMisses() {
+        Machine mach = new Machine(UPPER, 5, 3, navalRotors());
+        SettingCache cache = new SettingCache();
+        Machine.Template t =
+            template(mach, "AXLE", "B", "Beta", "III", "IV", "I");
+        assertNull(cache.get("B Beta III IV I AXLE"));
+        cache.put("B Beta III IV I AXLE", t);
+        assertSame(t, cache.get("B Beta III IV I AXLE"));
+        assertSame(t, cache.get("B Beta III IV I AXLE"));
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.size());
+        cache.put("B Beta III IV I AXLE", t);
+        assertEquals(1, cache.size());
+        assertEquals(SettingCache.weight("B Beta III IV I AXLE", t),
+                     cache.weight());
+    }
+
+    @Test
+    public void checkEviction() {
+        Machine.Template[] abc = templates("AAAA", "BBBB", "CCCC");
+        Machine.Template a = abc[0], b = abc[1], c = abc[2];
+        long capacity = SettingCache.weight("a", a) + a.weight() + 10;
+        SettingCache cache = new SettingCache(capacity, 1);
+        cache.put("a", a);
+        cache.put("b", b);
+        assertSame(a, cache.get("a"));
+        cache.put("c", c);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        assertNull("least recently used is evicted", cache.get("b"));
+        assertSame(a, cache.get("a"));
+        assertSame(c, cache.get("c"));
+        assertTrue(cache.weight() <= capacity);
+
+        SettingCache tiny =
+            new SettingCache(SettingCache.weight("a", a) - 1, 1);
+        tiny.put("a", a);
+        assertEquals(0, tiny.size());
+    }
+
+    @Test
+    public void checkSharedTables() {
+        Machine.Template[] ab = templates("AAAA", "BBBB");
+        Machine.Template a = ab[0], b = ab[1];
+        assertNotNull(a.entry());
+        assertSame(a.entry(), b.entry());
+        SettingCache cache = new SettingCache();
+        cache.put("a", a);
+        cache.put("b", b);
+        assertEquals("shared end tables counted once",
+                     SettingCache.weight("a", a) + b.weight()
+                     + Character.BYTES, cache.weight());
+        cache.put("a", b);
+        assertEquals(SettingCache.weight("a", b) + b.weight()
+                     + Character.BYTES, cache.weight());
+    }
+
+    @Test
+    public void checkStripes() {
+        Machine.Template a = templates("AAAA")[0];
+        long one = a.weight() + Character.BYTES * "key 00".length();
+        long capacity = SettingCache.weight("key 00", a) + 9 * one;
+        SettingCache cache = new SettingCache(capacity, 4);
+        for (int i = 0; i < 40; i += 1) {
+            String key = String.format("key %02d", i);
+            cache.put(key, a);
+            assertSame(a, cache.get(key));
+            assertTrue(cache.weight() <= capacity);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(30, cache.evictions());
+        assertEquals(40, cache.hits());
+    }
+
+    @Test
+    public void checkSharedByCopies() {
+        Machine mach = new Machine(UPPER, 5, 3, navalRotors());
+        assertSame(mach.settingCache(), mach.copy().settingCache());
+        assertNotSame(mach.settingCache(),
+                      new Machine(UPPER, 5, 3, navalRotors())
+                      .settingCache());
+    }
+}
@@ -126,4 +126,36 @@ class TestUtils {
         NAVALZ_MAP.put("Gamma", "EGTPLBOVFSINCUJZDXMRQAYWHK");
     }
 
+    /** The notches of the naval moving rotors. */
+    static final HashMap<String, String> NAVAL_NOTCHES = new HashMap<>();
+    static {
+        NAVAL_NOTCHES.put("I", "Q");
+        NAVAL_NOTCHES.put("II", "E");
+        NAVAL_NOTCHES.put("III", "V");
+        NAVAL_NOTCHES.put("IV", "J");
+        NAVAL_NOTCHES.put("V", "Z");
+        NAVAL_NOTCHES.put("VI", "ZM");
+        NAVAL_NOTCHES.put("VII", "ZM");
+        NAVAL_NOTCHES.put("VIII", "ZM");
+    }
+
+    /** Return a fresh set of the naval rotors, indexed by name, as read
+     *  from a configuration file. */
+    static HashMap<String, Rotor> navalRotors() {
+        HashMap<String, Rotor> result = new HashMap<>();
+        for (String name : NAVALA.keySet()) {
+            Permutation perm = new Permutation(NAVALA.get(name), UPPER);
+            Rotor rotor;
+            if (NAVAL_NOTCHES.containsKey(name)) {
+                rotor = new MovingRotor(name, perm, NAVAL_NOTCHES.get(name));
+            } else if (name.equals("B") || name.equals("C")) {
+                rotor = new Reflector(name, perm);
+            } else {
+                rotor = new FixedRotor(name, perm);
+            }
+            result.put(name, rotor);
+        }
+        return result;
+    }
+
 }
@@ -11,7 +11,16 @@ public class UnitTest {
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
         System.exit(textui.runClasses(PermutationTest.class,
-                                      MovingRotorTest.class));
+                                      AlphabetTest.class,
+                                      MovingRotorTest.class,
+                                      MachineTest.class,
+                                      ConfigImageTest.class,
+                                      BombeTest.class,
+                                      HillClimbTest.class,
+                                      ServerTest.class,
+                                      MetricsTest.class,
+                                      SettingCacheTest.class,
+                                      BatchMachineTest.class));
     }
 
 }